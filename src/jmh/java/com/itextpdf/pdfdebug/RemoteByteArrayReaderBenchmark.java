@@ -0,0 +1,135 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 2007-2018 iText Group NV
+ * Authors: Bruno Lowagie et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+
+package com.itextpdf.pdfdebug;
+
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.sun.jdi.ArrayReference;
+import com.sun.jdi.ByteValue;
+import com.sun.jdi.Value;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ByteValue-to-byte[] conversion of {@link RemoteByteArrayReader} against an in-memory <code>ArrayReference</code>.
+ * Like JDI, the fake answers every range with a fresh list of value mirrors, so the allocation pattern is kept
+ * while the wire round trips are left out.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class RemoteByteArrayReaderBenchmark {
+    @Param({"1048576", "16777216"})
+    public int length;
+
+    @Param({"4096", "65536", "1048576"})
+    public int chunkSize;
+
+    private ArrayReference array;
+
+    @Setup
+    public void createArray() {
+        byte[] content = new byte[length];
+        new Random(length).nextBytes(content);
+        array = fakeArrayReference(content);
+    }
+
+    @Benchmark
+    public byte[] readRange() {
+        RemoteByteArrayReader reader = new RemoteByteArrayReader(array, chunkSize);
+        byte[] dest = new byte[length];
+        reader.readRange(0, length, dest, 0, new EmptyProgressIndicator());
+        return dest;
+    }
+
+    private static ArrayReference fakeArrayReference(final byte[] content) {
+        return (ArrayReference) Proxy.newProxyInstance(ArrayReference.class.getClassLoader(), new Class<?>[]{ArrayReference.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if("length".equals(method.getName())) {
+                            return content.length;
+                        }
+                        if("getValues".equals(method.getName()) && args!=null && args.length==2) {
+                            int index = (Integer) args[0];
+                            int count = (Integer) args[1];
+                            List<Value> values = new ArrayList<Value>(count);
+                            for(int i=0;i<count;i++) {
+                                values.add(fakeByteValue(content[index + i]));
+                            }
+                            return values;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static ByteValue fakeByteValue(final byte value) {
+        return (ByteValue) Proxy.newProxyInstance(ByteValue.class.getClassLoader(), new Class<?>[]{ByteValue.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if("value".equals(method.getName()) || "byteValue".equals(method.getName())) {
+                            return value;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
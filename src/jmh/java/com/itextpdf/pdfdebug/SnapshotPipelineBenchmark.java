@@ -0,0 +1,132 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 2007-2018 iText Group NV
+ * Authors: Bruno Lowagie et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+
+package com.itextpdf.pdfdebug;
+
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The IDE side of a snapshot: deserializing the remote document, building its debug PDF,
+ * and parsing that PDF again the way {@link PdfDebugProjectComponent} does before handing it to RUPS.
+ * RUPS itself needs a Swing host, so its compare and load steps are measured in the IDE (see {@link SnapshotMetrics}).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class SnapshotPipelineBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int pages;
+
+    private byte[] serialized;
+    private byte[] debugBytes;
+
+    /**
+     * getDebugBytes closes its document, so every invocation gets a fresh clone.
+     */
+    @State(Scope.Thread)
+    public static class Clone {
+        private PdfDocument pdfDoc;
+
+        @Setup(Level.Invocation)
+        public void deserialize(SnapshotPipelineBenchmark benchmark) throws Exception {
+            pdfDoc = PdfDocumentHelper.deserialize(benchmark.serialized);
+        }
+
+        @TearDown(Level.Invocation)
+        public void close() {
+            if(!pdfDoc.isClosed()) pdfDoc.close();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void createDocument() throws Exception {
+        serialized = SyntheticDocuments.serialized(pages);
+        debugBytes = PdfDocumentHelper.getDebugBytes(PdfDocumentHelper.deserialize(serialized));
+    }
+
+    @Benchmark
+    public PdfDocument deserialize() throws Exception {
+        return PdfDocumentHelper.deserialize(serialized);
+    }
+
+    @Benchmark
+    public byte[] getDebugBytes(Clone clone) {
+        return PdfDocumentHelper.getDebugBytes(clone.pdfDoc);
+    }
+
+    @Benchmark
+    public byte[] getDebugBytesUncompressed(Clone clone) {
+        return PdfDocumentHelper.getDebugBytes(clone.pdfDoc, true);
+    }
+
+    @Benchmark
+    public int parseDebugBytes() throws Exception {
+        PdfDocument pdfDoc = new PdfDocument(new PdfReader(new ByteArrayInputStream(debugBytes)));
+        try {
+            return pdfDoc.getNumberOfPdfObjects();
+        } finally {
+            pdfDoc.close();
+        }
+    }
+
+    @Benchmark
+    public SnapshotFingerprint fingerprint() {
+        return SnapshotFingerprint.of(debugBytes);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 2007-2018 iText Group NV
+ * Authors: Bruno Lowagie et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+
+package com.itextpdf.pdfdebug;
+
+import com.itextpdf.io.font.constants.StandardFonts;
+import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.kernel.font.PdfFontFactory;
+import com.itextpdf.kernel.geom.PageSize;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfPage;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.WriterProperties;
+import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Documents in the state pdfDebug finds them in the debug target VM: open, in debug mode, pages not flushed.
+ */
+final class SyntheticDocuments {
+    private static final int LINES_PER_PAGE = 40;
+
+    private SyntheticDocuments() {
+        // do not create an instance
+    }
+
+    /**
+     * @return open document with <code>pages</code> pages of text; the caller closes it.
+     */
+    @NotNull
+    static PdfDocument create(int pages) throws IOException {
+        PdfDocument pdfDoc = new PdfDocument(new PdfWriter(new ByteArrayOutputStream(), new WriterProperties().useDebugMode()));
+        PdfFont font = PdfFontFactory.createFont(StandardFonts.HELVETICA);
+        for(int i=0;i<pages;i++) {
+            PdfPage page = pdfDoc.addNewPage(PageSize.A4);
+            PdfCanvas canvas = new PdfCanvas(page);
+            canvas.beginText().setFontAndSize(font, 10)
+                    .setLeading(14).moveText(36, 800);
+            for(int line=0;line<LINES_PER_PAGE;line++) {
+                canvas.newlineShowText("Page " + (i + 1) + ", line " + (line + 1) + ": the quick brown fox jumps over the lazy dog");
+            }
+            canvas.endText().release();
+        }
+        return pdfDoc;
+    }
+
+    /**
+     * @return what <code>PdfDocument.getSerializedBytes()</code> hands to the plugin for such a document.
+     */
+    @NotNull
+    static byte[] serialized(int pages) throws IOException {
+        PdfDocument pdfDoc = create(pages);
+        try {
+            byte[] bytes = pdfDoc.getSerializedBytes();
+            if(bytes==null) throw new IllegalStateException("PdfDocument could not be serialized");
+            return bytes;
+        } finally {
+            pdfDoc.close();
+        }
+    }
+}
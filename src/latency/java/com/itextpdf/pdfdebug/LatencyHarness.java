@@ -0,0 +1,435 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 2007-2018 iText Group NV
+ * Authors: Bruno Lowagie et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+
+package com.itextpdf.pdfdebug;
+
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.sun.jdi.ArrayReference;
+import com.sun.jdi.Bootstrap;
+import com.sun.jdi.IntegerValue;
+import com.sun.jdi.Method;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.ReferenceType;
+import com.sun.jdi.ThreadReference;
+import com.sun.jdi.Value;
+import com.sun.jdi.VirtualMachine;
+import com.sun.jdi.connect.AttachingConnector;
+import com.sun.jdi.connect.Connector;
+import com.sun.jdi.connect.LaunchingConnector;
+import com.sun.jdi.event.BreakpointEvent;
+import com.sun.jdi.event.ClassPrepareEvent;
+import com.sun.jdi.event.Event;
+import com.sun.jdi.event.EventSet;
+import com.sun.jdi.event.VMDeathEvent;
+import com.sun.jdi.event.VMDisconnectEvent;
+import com.sun.jdi.request.BreakpointRequest;
+import com.sun.jdi.request.ClassPrepareRequest;
+import com.sun.jdi.request.EventRequest;
+import com.sun.jdi.request.EventRequestManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Headless latency check of the clone path: launches {@link LatencyDebuggee} through a JDI <code>LaunchingConnector</code>,
+ * snapshots its documents at every breakpoint with the direct path of {@link CloneRemotePdfDocument} under the default
+ * {@link PdfDebugSettings} (debug PDF built in the target VM by {@link SnapshotInvocations}, brought over by the transport
+ * {@link CloneRemotePdfDocument#chooseTransport(boolean, byte[], SnapshotLink, PdfDebugSettings)} picks, the snapshot
+ * of the previous pause standing in for the cached one) and compares time-to-snapshot and peak heap of this VM
+ * with a recorded baseline.
+ * <p>
+ * The baseline depends on the machine and isn't checked in: record it with <code>./gradlew latencyRecord</code> before
+ * the first check. Measurements without a baseline are only reported.
+ * <p>
+ * Arguments: baseline properties file. With <code>-Dpdfdebug.latency.record=true</code> the baseline is rewritten
+ * from the measurements instead of being checked.
+ * <p>
+ * With <code>-Dpdfdebug.latency.throttle=&lt;round trip ms&gt;,&lt;MB/s&gt;</code> the debuggee is attached through a
+ * {@link ThrottledSocketProxy} instead and treated as a remote target, whose temp files the IDE can't read:
+ * the bytes are deflated in the target VM or sent as a delta and copied with {@link RemoteByteArrayReader},
+ * to check the adaptive transfer over a slow link; its baseline keys start with <code>throttled.</code>.
+ */
+public class LatencyHarness {
+    private static final String RECORD_PROPERTY = "pdfdebug.latency.record";
+    private static final String THROTTLE_PROPERTY = "pdfdebug.latency.throttle";
+    private static final int ATTACH_ATTEMPTS = 50;
+    private static final int[] PAGES = {10, 100, 1000};
+    private static final int PAUSES = 5;
+    private static final double DEFAULT_TOLERANCE = 0.25;
+    private static final double MB = 1024 * 1024;
+    private static final PdfDebugSettings SETTINGS = new PdfDebugSettings();
+
+    /**
+     * measurements of all pauses on documents of one size.
+     */
+    private static final class Measurements {
+        final List<Double> millis = new ArrayList<Double>();
+        int pauses;
+        double peakHeapMb;
+        /**
+         * debug bytes of the previous pause, what the snapshot cache of the IDE would hold.
+         */
+        byte[] previous;
+
+        double medianMillis() {
+            List<Double> sorted = new ArrayList<Double>(millis);
+            Collections.sort(sorted);
+            return sorted.get(sorted.size() / 2);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        File baselineFile = new File(args[0]);
+        String throttle = System.getProperty(THROTTLE_PROPERTY);
+        Map<Integer, Measurements> results;
+        String prefix;
+        if(throttle==null || throttle.isEmpty()) {
+            results = run(launch(), false);
+            prefix = "";
+        } else {
+            String[] parts = throttle.split(",");
+            long rttMillis = Long.parseLong(parts[0].trim());
+            double bytesPerSecond = Double.parseDouble(parts[1].trim()) * MB;
+            results = runThrottled(rttMillis, bytesPerSecond);
+            prefix = "throttled.";
+        }
+        if(Boolean.getBoolean(RECORD_PROPERTY)) {
+            record(baselineFile, prefix, results);
+        } else if(!check(baselineFile, prefix, results)) {
+            System.exit(1);
+        }
+    }
+
+    private static String debuggeeMain() {
+        StringBuilder main = new StringBuilder(LatencyDebuggee.class.getName()).append(' ').append(PAUSES);
+        for(int pages : PAGES) main.append(' ').append(pages);
+        return main.toString();
+    }
+
+    private static VirtualMachine launch() throws Exception {
+        LaunchingConnector connector = Bootstrap.virtualMachineManager().defaultConnector();
+        Map<String, Connector.Argument> arguments = connector.defaultArguments();
+        arguments.get("main").setValue(debuggeeMain());
+        arguments.get("options").setValue("-cp \"" + System.getProperty("java.class.path") + "\"");
+
+        VirtualMachine vm = connector.launch(arguments);
+        drain(vm.process().getInputStream(), System.out);
+        drain(vm.process().getErrorStream(), System.err);
+        return vm;
+    }
+
+    /**
+     * start the debuggee listening for JDWP on a local port, and attach to it through the proxy.
+     */
+    private static Map<Integer, Measurements> runThrottled(long rttMillis, double bytesPerSecond) throws Exception {
+        int port;
+        ServerSocket probe = new ServerSocket(0);
+        try {
+            port = probe.getLocalPort();
+        } finally {
+            probe.close();
+        }
+        List<String> command = new ArrayList<String>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.add("-agentlib:jdwp=transport=dt_socket,server=y,suspend=y,address=" + port);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        Collections.addAll(command, debuggeeMain().split(" "));
+        Process debuggee = new ProcessBuilder(command).start();
+        drain(debuggee.getInputStream(), System.out);
+        drain(debuggee.getErrorStream(), System.err);
+
+        ThrottledSocketProxy proxy = new ThrottledSocketProxy(port, rttMillis, bytesPerSecond);
+        try {
+            System.out.println(String.format("Throttled to %d ms round trip, %.1f MB/s", rttMillis, bytesPerSecond / MB));
+            return run(attach(proxy.getPort()), true);
+        } finally {
+            proxy.close();
+            debuggee.destroy();
+        }
+    }
+
+    private static VirtualMachine attach(int port) throws Exception {
+        AttachingConnector connector = null;
+        for(AttachingConnector c : Bootstrap.virtualMachineManager().attachingConnectors()) {
+            if("dt_socket".equals(c.transport().name())) connector = c;
+        }
+        if(connector==null) throw new IllegalStateException("No socket attaching connector");
+        Map<String, Connector.Argument> arguments = connector.defaultArguments();
+        arguments.get("hostname").setValue("127.0.0.1");
+        arguments.get("port").setValue(String.valueOf(port));
+        for(int attempt=1;;attempt++) {
+            try {
+                return connector.attach(arguments);
+            } catch (IOException ex) {
+                // the debuggee may not listen yet
+                if(attempt>=ATTACH_ATTEMPTS) throw ex;
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    /**
+     * @param remote treat the debuggee as a remote target, whose temporary files the IDE can't read
+     */
+    private static Map<Integer, Measurements> run(VirtualMachine vm, boolean remote) throws Exception {
+        EventRequestManager erm = vm.eventRequestManager();
+        ClassPrepareRequest prepareRequest = erm.createClassPrepareRequest();
+        prepareRequest.addClassFilter(LatencyDebuggee.class.getName());
+        prepareRequest.enable();
+
+        Map<Integer, Measurements> results = new LinkedHashMap<Integer, Measurements>();
+        // the suspended VM is resumed with the event set of its VMStartEvent; resuming it here as well would,
+        // on a slow link, undo the suspension of the class prepare event
+        boolean running = true;
+        while(running) {
+            EventSet events = vm.eventQueue().remove();
+            for(Event event : events) {
+                if(event instanceof ClassPrepareEvent) {
+                    ReferenceType type = ((ClassPrepareEvent) event).referenceType();
+                    Method snapshotPoint = type.methodsByName(LatencyDebuggee.SNAPSHOT_METHOD).get(0);
+                    BreakpointRequest breakpoint = erm.createBreakpointRequest(snapshotPoint.location());
+                    breakpoint.setSuspendPolicy(EventRequest.SUSPEND_EVENT_THREAD);
+                    breakpoint.enable();
+                } else if(event instanceof BreakpointEvent) {
+                    snapshot(((BreakpointEvent) event).thread(), remote, results);
+                } else if(event instanceof VMDeathEvent || event instanceof VMDisconnectEvent) {
+                    running = false;
+                }
+            }
+            if(running) events.resume();
+        }
+        return results;
+    }
+
+    /**
+     * the steps of the direct path in {@link CloneRemotePdfDocument}, for a document seen for the first time.
+     */
+    private static void snapshot(ThreadReference thread, boolean remote, Map<Integer, Measurements> results) throws Exception {
+        List<Value> frameArgs = thread.frame(0).getArgumentValues();
+        ObjectReference pdfDoc = (ObjectReference) frameArgs.get(0);
+        int pages = ((IntegerValue) frameArgs.get(1)).value();
+
+        Measurements m = results.get(pages);
+        if(m==null) {
+            m = new Measurements();
+            results.put(pages, m);
+        }
+        resetPeakHeap();
+        long start = System.nanoTime();
+        RemoteInvoker invoker = new RemoteInvoker(thread);
+        byte[] debugBytes = null;
+        String transport = null;
+        try {
+            ArrayReference bytes = SnapshotInvocations.body(invoker, pdfDoc, SETTINGS.remoteDebugBytes,
+                    SETTINGS.fastSnapshot, null);
+            if(bytes!=null) {
+                CloneRemotePdfDocument.Transport chosen = chooseTransport(invoker, remote, m.previous);
+                transport = chosen.name();
+                debugBytes = transfer(invoker, bytes, chosen, m.previous);
+            }
+        } finally {
+            invoker.release();
+        }
+        double millis = (System.nanoTime() - start) / 1e6;
+        if(debugBytes==null) throw new IllegalStateException("No debug bytes for a document of " + pages + " pages");
+
+        // the first pause of each size pays for class loading and JIT, it is kept out of the median
+        if(m.pauses++>0) m.millis.add(millis);
+        m.peakHeapMb = Math.max(m.peakHeapMb, peakHeap() / MB);
+        if(SETTINGS.remoteDebugBytes) m.previous = debugBytes;
+        System.out.println(String.format("%d pages: %d debug bytes in %.1f ms, %s", pages, debugBytes.length, millis, transport));
+    }
+
+    /**
+     * @param remote the IDE can't read the temp files of the target VM
+     * @param previous snapshot of the previous pause, or null
+     */
+    @NotNull
+    private static CloneRemotePdfDocument.Transport chooseTransport(@NotNull RemoteInvoker invoker, boolean remote,
+                                                                    @Nullable byte[] previous) {
+        SnapshotLink link = SnapshotLink.of(invoker.getVirtualMachine());
+        boolean sideChannel = !remote && !Boolean.FALSE.equals(SnapshotSideChannel.getVisibility(invoker.getVirtualMachine()));
+        return CloneRemotePdfDocument.chooseTransport(sideChannel, SETTINGS.remoteDebugBytes ? previous : null, link, SETTINGS);
+    }
+
+    /**
+     * the transport steps of the direct path in {@link CloneRemotePdfDocument}, falling back to the plain transfer.
+     */
+    @NotNull
+    private static byte[] transfer(@NotNull RemoteInvoker invoker, @NotNull ArrayReference bytes,
+                                   @NotNull CloneRemotePdfDocument.Transport transport, @Nullable byte[] previous) throws Exception {
+        EmptyProgressIndicator indicator = new EmptyProgressIndicator();
+        if(transport==CloneRemotePdfDocument.Transport.SIDE_CHANNEL) {
+            String path = SnapshotInvocations.isSideChannelVisible(invoker) ? SnapshotInvocations.writeTempFile(invoker, bytes) : null;
+            byte[] ba = SnapshotSideChannel.read(path, bytes.length());
+            if(ba!=null) return ba;
+            transport = CloneRemotePdfDocument.chooseRemoteTransport(previous,
+                    SnapshotLink.of(invoker.getVirtualMachine()), SETTINGS);
+        }
+        switch (transport) {
+            case DELTA:
+                int[][] hashes = SnapshotInvocations.blockHashes(invoker, bytes);
+                byte[] rebuilt = new SnapshotDelta(previous, hashes[0], hashes[1]).rebuild(new RemoteByteArrayReader(bytes), indicator);
+                if(rebuilt!=null) return rebuilt;
+                break;
+            case COMPRESSED:
+                ArrayReference deflated = SnapshotInvocations.deflate(invoker, bytes, SETTINGS.compressionLevel);
+                if(deflated!=null) {
+                    return SnapshotCompression.inflate(new RemoteByteArrayReader(deflated).read(indicator), bytes.length(), indicator);
+                }
+                break;
+        }
+        return new RemoteByteArrayReader(bytes).read(indicator);
+    }
+
+    private static void resetPeakHeap() {
+        System.gc();
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if(pool.getType()==MemoryType.HEAP) pool.resetPeakUsage();
+        }
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if(pool.getType()==MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    private static boolean check(File baselineFile, String prefix, Map<Integer, Measurements> results) throws IOException {
+        Properties baseline = load(baselineFile);
+        double tolerance = Double.parseDouble(baseline.getProperty("tolerance", String.valueOf(DEFAULT_TOLERANCE)));
+        boolean passed = true;
+        for(Map.Entry<Integer, Measurements> e : results.entrySet()) {
+            passed &= checkValue(baseline, prefix + "pages." + e.getKey() + ".millis", e.getValue().medianMillis(), tolerance);
+            passed &= checkValue(baseline, prefix + "pages." + e.getKey() + ".heapMb", e.getValue().peakHeapMb, tolerance);
+        }
+        return passed;
+    }
+
+    private static boolean checkValue(Properties baseline, String key, double measured, double tolerance) {
+        String recorded = baseline.getProperty(key);
+        if(recorded==null) {
+            // reported only, the baseline is recorded on the machine that runs the check
+            System.out.println(String.format("%s: %.1f, no baseline, record one with ./gradlew latencyRecord", key, measured));
+            return true;
+        }
+        double limit = Double.parseDouble(recorded) * (1 + tolerance);
+        boolean passed = measured<=limit;
+        System.out.println(String.format("%s: %.1f, baseline %s, limit %.1f%s", key, measured, recorded, limit,
+                passed ? "" : " EXCEEDED"));
+        return passed;
+    }
+
+    private static void record(File baselineFile, String prefix, Map<Integer, Measurements> results) throws IOException {
+        Properties baseline = load(baselineFile);
+        for(Map.Entry<Integer, Measurements> e : results.entrySet()) {
+            baseline.setProperty(prefix + "pages." + e.getKey() + ".millis", String.format(Locale.ROOT, "%.1f", e.getValue().medianMillis()));
+            baseline.setProperty(prefix + "pages." + e.getKey() + ".heapMb", String.format(Locale.ROOT, "%.1f", e.getValue().peakHeapMb));
+        }
+        OutputStream out = new FileOutputStream(baselineFile);
+        try {
+            baseline.store(out, "pdfDebug latency baseline, recorded by LatencyHarness");
+        } finally {
+            out.close();
+        }
+    }
+
+    private static Properties load(File file) throws IOException {
+        Properties properties = new Properties();
+        if(file.isFile()) {
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * the debuggee blocks once its output pipe is full.
+     */
+    private static void drain(final InputStream in, final Appendable out) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Reader reader = new InputStreamReader(in);
+                    char[] buffer = new char[1024];
+                    int n;
+                    while((n = reader.read(buffer))>=0) {
+                        out.append(new String(buffer, 0, n));
+                    }
+                } catch (IOException ignored) {
+                }
+            }
+        }, "debuggee output");
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
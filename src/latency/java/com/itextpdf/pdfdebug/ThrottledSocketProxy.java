@@ -0,0 +1,198 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 2007-2018 iText Group NV
+ * Authors: Bruno Lowagie et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+
+package com.itextpdf.pdfdebug;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stand-in for a tunnel to a debuggee in a remote container: forwards local TCP connections to <code>targetPort</code>,
+ * delaying every packet by half the round trip in each direction and capping the bandwidth.
+ */
+final class ThrottledSocketProxy implements Closeable {
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final ServerSocket server;
+    private final int targetPort;
+    private final long halfRoundTripNanos;
+    private final double bytesPerSecond;
+
+    /**
+     * @param rttMillis round trip time added to the loopback one
+     * @param bytesPerSecond bandwidth of each direction
+     */
+    ThrottledSocketProxy(int targetPort, long rttMillis, double bytesPerSecond) throws IOException {
+        this.server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        this.targetPort = targetPort;
+        this.halfRoundTripNanos = TimeUnit.MILLISECONDS.toNanos(rttMillis) / 2;
+        this.bytesPerSecond = bytesPerSecond;
+        start(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "proxy accept");
+    }
+
+    int getPort() {
+        return server.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+
+    private void accept() {
+        while(!server.isClosed()) {
+            try {
+                Socket client = server.accept();
+                Socket target;
+                try {
+                    target = new Socket(InetAddress.getLoopbackAddress(), targetPort);
+                } catch (IOException ex) {
+                    // the debuggee isn't listening yet, the client tries again
+                    client.close();
+                    continue;
+                }
+                client.setTcpNoDelay(true);
+                target.setTcpNoDelay(true);
+                forward(client, target, "proxy up");
+                forward(target, client, "proxy down");
+            } catch (IOException ex) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * one direction: a reader stamps what arrives, a writer hands it on once it is due.
+     */
+    private void forward(final Socket from, final Socket to, String name) {
+        final BlockingQueue<Packet> queue = new LinkedBlockingQueue<Packet>();
+        start(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    InputStream in = from.getInputStream();
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int n;
+                    while((n = in.read(buffer))>=0) {
+                        byte[] data = new byte[n];
+                        System.arraycopy(buffer, 0, data, 0, n);
+                        queue.put(new Packet(data, System.nanoTime() + halfRoundTripNanos));
+                    }
+                } catch (IOException ignored) {
+                } catch (InterruptedException ignored) {
+                } finally {
+                    queue.add(Packet.END);
+                }
+            }
+        }, name + " in");
+        start(new Runnable() {
+            @Override
+            public void run() {
+                long linkFree = 0;
+                try {
+                    OutputStream out = to.getOutputStream();
+                    while(true) {
+                        Packet packet = queue.take();
+                        if(packet==Packet.END) break;
+                        // the link carries one packet after the other at the capped rate
+                        long sent = Math.max(packet.due, linkFree) + (long) (packet.data.length * 1e9 / bytesPerSecond);
+                        linkFree = sent;
+                        sleepUntil(sent);
+                        out.write(packet.data);
+                        out.flush();
+                    }
+                } catch (IOException ignored) {
+                } catch (InterruptedException ignored) {
+                } finally {
+                    closeQuietly(to);
+                    closeQuietly(from);
+                }
+            }
+        }, name + " out");
+    }
+
+    private static void sleepUntil(long nanoTime) throws InterruptedException {
+        long wait = nanoTime - System.nanoTime();
+        if(wait>0) TimeUnit.NANOSECONDS.sleep(wait);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static void start(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static final class Packet {
+        static final Packet END = new Packet(new byte[0], 0);
+
+        final byte[] data;
+        final long due;
+
+        Packet(byte[] data, long due) {
+            this.data = data;
+            this.due = due;
+        }
+    }
+}
@@ -46,74 +46,736 @@
 package com.itextpdf.pdfdebug;
 
 import com.intellij.debugger.engine.JavaValue;
-import com.intellij.xdebugger.XDebugProcess;
+import com.intellij.debugger.engine.evaluation.EvaluateException;
+import com.intellij.debugger.engine.evaluation.EvaluationContextImpl;
+import com.intellij.debugger.engine.events.SuspendContextCommandImpl;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
 import com.intellij.xdebugger.XDebugSession;
+import com.intellij.xdebugger.XExpression;
 import com.intellij.xdebugger.XSourcePosition;
+import com.intellij.xdebugger.evaluation.EvaluationMode;
 import com.intellij.xdebugger.evaluation.XDebuggerEvaluator;
 import com.intellij.xdebugger.frame.XValue;
+import com.intellij.xdebugger.impl.breakpoints.XExpressionImpl;
 import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.rups.model.LoggerHelper;
 import com.sun.jdi.ArrayReference;
-import com.sun.jdi.ByteValue;
+import com.sun.jdi.IntegerValue;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.StringReference;
 import com.sun.jdi.Value;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.List;
+import java.util.zip.DataFormatException;
 
 /**
  * Copy PdfDocument instance from debug target VM using object serialization.
+ * The result is delivered as debug PDF bytes, built either in the target VM or in the IDE.
+ * The target VM's methods are called directly through JDI; compiled code fragments are the fallback.
  * @author alangoo
  */
 abstract class CloneRemotePdfDocument {
+    private static final String TRANSFER_TITLE = "Cloning PdfDocument";
+    private static final String PREFETCH_TITLE = "Prefetching PdfDocument";
+
+    /**
+     * how the snapshot bytes leave the target VM.
+     */
+    enum Transport {
+        JDI,
+        SIDE_CHANNEL,
+        DELTA,
+        COMPRESSED
+    }
+
+    /**
+     * work done by calling the target VM's methods directly, see {@link #invokeDirectly(DirectCommand)}.
+     */
+    private interface DirectCommand {
+        /**
+         * @return what to do with the result, run once the target VM is no longer being called.
+         */
+        @NotNull
+        Runnable run(@NotNull RemoteInvoker invoker, @NotNull ObjectReference doc) throws Exception;
+
+        /**
+         * the same work has to be done through a code fragment instead.
+         */
+        void failed();
+    }
+
     private JavaValue valPdfDoc;
+    /**
+     * the transferred array went to {@link SnapshotCache#putPartial}, which releases it.
+     */
+    private volatile boolean keptForResume;
     private XDebugSession session;
+    private SnapshotCache cache;
+    private volatile SnapshotCache.Key cacheKey;
+    private volatile boolean cancelled;
+    private volatile ProgressIndicator transferIndicator;
+    private boolean prefetch;
+    private boolean bypassCache;
+    private SnapshotScope scope;
+    private final SnapshotMetrics metrics;
 
     CloneRemotePdfDocument(@NotNull final JavaValue pdfDoc, @NotNull final XDebugSession session) {
+        this(pdfDoc, session, null);
+    }
+
+    /**
+     * @param cache consulted before cloning and filled afterwards, may be null.
+     */
+    CloneRemotePdfDocument(@NotNull final JavaValue pdfDoc, @NotNull final XDebugSession session, @Nullable final SnapshotCache cache) {
         this.valPdfDoc = pdfDoc;
         this.session = session;
+        this.cache = cache;
+        this.metrics = new SnapshotMetrics(pdfDoc.getName());
+    }
+
+    /**
+     * stop a stale clone. Neither callback is invoked afterwards,
+     * and a running transfer is aborted before its next chunk.
+     */
+    final void cancel() {
+        cancelled = true;
+        ProgressIndicator pi = transferIndicator;
+        if(pi!=null) pi.cancel();
+    }
+
+    /**
+     * mark this clone as speculative: it runs at minimum thread priority under its own title.
+     * Must be called before {@link #execute()}.
+     */
+    final void setPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+        metrics.setPrefetch(prefetch);
+    }
+
+    /**
+     * clone even if the cache holds a snapshot with the same fingerprint; the new snapshot is still cached.
+     * The fingerprint misses edits that neither add objects nor write anything, so an explicit re-selection
+     * must not be answered from the cache. Must be called before {@link #execute()}.
+     */
+    final void setBypassCache(boolean bypassCache) {
+        this.bypassCache = bypassCache;
+    }
+
+    /**
+     * limit the snapshot to a part of the document, null for all of it.
+     * Must be called before {@link #execute()}.
+     */
+    final void setScope(@Nullable SnapshotScope scope) {
+        this.scope = scope;
+    }
+
+    final boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return phases measured so far; the caller may add the ones following the clone.
+     */
+    @NotNull
+    final SnapshotMetrics getMetrics() {
+        return metrics;
     }
 
     final void execute() {
-        XDebugProcess dPs = session.getDebugProcess();
-        XDebuggerEvaluator eval = dPs.getEvaluator();
-        String varName = valPdfDoc.getName();
-        String expr = String.format("%s.getSerializedBytes()", varName);
-        XSourcePosition currPos = session.getCurrentPosition();
-        eval.evaluate(expr, new XDebuggerEvaluator.XEvaluationCallback() {
+        final Value docRef = valPdfDoc.getDescriptor().getValue();
+        if(cache==null || !(docRef instanceof ObjectReference)) {
+            executeClone();
+            return;
+        }
+        // a cheap remote fingerprint decides whether the cached snapshot is still current
+        final SnapshotMetrics.Measurement fingerprintTime = metrics.begin(SnapshotMetrics.Phase.FINGERPRINT);
+        boolean direct = invokeDirectly(new DirectCommand() {
+            @Override
+            public Runnable run(@NotNull RemoteInvoker invoker, @NotNull final ObjectReference doc) throws Exception {
+                final String fingerprint = SnapshotInvocations.fingerprint(invoker, doc);
+                invoker.release();
+                fingerprintTime.end();
+                return new Runnable() {
+                    @Override
+                    public void run() {
+                        onFingerprint(doc, fingerprint);
+                    }
+                };
+            }
+
+            @Override
+            public void failed() {
+                evaluateFingerprint((ObjectReference) docRef, fingerprintTime);
+            }
+        });
+        if(!direct) evaluateFingerprint((ObjectReference) docRef, fingerprintTime);
+    }
+
+    private void evaluateFingerprint(@NotNull final ObjectReference docRef, @NotNull final SnapshotMetrics.Measurement fingerprintTime) {
+        evaluate(SnapshotExpressions.fingerprint(valPdfDoc.getName()), new XDebuggerEvaluator.XEvaluationCallback() {
             @Override
             public void evaluated(@NotNull XValue result) {
-                if(result instanceof JavaValue) {
-                    JavaValue jv = (JavaValue)result;
-                    Value v = jv.getDescriptor().getValue();
-                    if(v==null) {
-                        onCloneSuccess(null);
-                    } else {
-                        ArrayReference bar = (ArrayReference) v;
-                        List<Value> bvList = bar.getValues();
-                        int baSize = bvList.size();
-                        byte[] ba = new byte[baSize];
-                        for(int i=0;i<baSize;i++) {
-                            ByteValue bv = (ByteValue)bvList.get(i);
-                            ba[i] = bv.value();
+                fingerprintTime.end();
+                Value v = result instanceof JavaValue ? ((JavaValue) result).getDescriptor().getValue() : null;
+                onFingerprint(docRef, stringValue(v));
+            }
+
+            @Override
+            public void errorOccurred(@NotNull String errorMessage) {
+                fingerprintTime.end();
+                // not cacheable, e.g. a document opened for reading only
+                onFingerprint(docRef, null);
+            }
+        });
+    }
+
+    private void onFingerprint(@NotNull ObjectReference docRef, @Nullable String fingerprint) {
+        if(cancelled) return;
+        if(fingerprint!=null) {
+            // snapshots of different scopes of the same state don't share the cache entry
+            cacheKey = new SnapshotCache.Key(docRef, scope==null ? fingerprint : fingerprint + "|" + scope);
+            final byte[] cached = bypassCache ? null : cache.get(cacheKey);
+            if(cached!=null) {
+                metrics.setCacheHit(true);
+                ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver(cached);
+                    }
+                });
+                return;
+            }
+            SnapshotCache.PartialTransfer partial = bypassCache ? null : cache.takePartial(cacheKey);
+            if(partial!=null) {
+                metrics.setTransport("resumed");
+                transfer(partial.array, null, null, partial.rawLength, partial.isDebugBytes, null, partial.received);
+                return;
+            }
+        }
+        executeClone();
+    }
+
+    private void executeClone() {
+        boolean remoteDebugBytes = PdfDebugSettings.getInstance().remoteDebugBytes;
+        execute(remoteDebugBytes, chooseTransport(remoteDebugBytes));
+    }
+
+    private Transport chooseTransport(boolean remoteDebugBytes) {
+        boolean sideChannel = SnapshotSideChannel.isAvailable(session) && !Boolean.FALSE.equals(getSideChannelVisibility());
+        return chooseTransport(sideChannel, remoteDebugBytes ? getPreviousSnapshot() : null, getLink(), PdfDebugSettings.getInstance());
+    }
+
+    private Transport chooseRemoteTransport(boolean remoteDebugBytes) {
+        return chooseRemoteTransport(remoteDebugBytes ? getPreviousSnapshot() : null, getLink(), PdfDebugSettings.getInstance());
+    }
+
+    /**
+     * @param sideChannel the IDE can read the temp files of the target VM
+     * @param previous latest snapshot of the document on the IDE side, null if there is none or it's no debug PDF:
+     *                 a serialized document shares no blocks with the cached debug PDFs
+     * @param link the link to the target VM, null if unknown
+     */
+    @NotNull
+    static Transport chooseTransport(boolean sideChannel, @Nullable byte[] previous, @Nullable SnapshotLink link,
+                                     @NotNull PdfDebugSettings settings) {
+        return sideChannel ? Transport.SIDE_CHANNEL : chooseRemoteTransport(previous, link, settings);
+    }
+
+    /**
+     * @return the transport for a target VM whose temp files the IDE can't read.
+     * @see #chooseTransport(boolean, byte[], SnapshotLink, PdfDebugSettings)
+     */
+    @NotNull
+    static Transport chooseRemoteTransport(@Nullable byte[] previous, @Nullable SnapshotLink link, @NotNull PdfDebugSettings settings) {
+        if(previous!=null && link!=null && settings.deltaTransfer && previous.length>=SnapshotDelta.MIN_LENGTH
+                && SnapshotDelta.isCheaperThanTransfer(link, previous.length)) {
+            return Transport.DELTA;
+        }
+        if(settings.compressionLevel>0) return Transport.COMPRESSED;
+        return Transport.JDI;
+    }
+
+    @Nullable
+    private SnapshotLink getLink() {
+        Value docRef = valPdfDoc.getDescriptor().getValue();
+        return docRef==null ? null : SnapshotLink.of(docRef.virtualMachine());
+    }
+
+    /**
+     * @see SnapshotSideChannel#getVisibility(com.sun.jdi.VirtualMachine)
+     */
+    @Nullable
+    private Boolean getSideChannelVisibility() {
+        Value docRef = valPdfDoc.getDescriptor().getValue();
+        return docRef==null ? null : SnapshotSideChannel.getVisibility(docRef.virtualMachine());
+    }
+
+    /**
+     * @return cached snapshot worth a delta transfer, or null.
+     */
+    @Nullable
+    private byte[] getPreviousSnapshot() {
+        if(cache==null || !PdfDebugSettings.getInstance().deltaTransfer) return null;
+        Value docRef = valPdfDoc.getDescriptor().getValue();
+        if(!(docRef instanceof ObjectReference)) return null;
+        byte[] previous = cache.getLatest((ObjectReference) docRef);
+        return previous!=null && previous.length>=SnapshotDelta.MIN_LENGTH ? previous : null;
+    }
+
+    private void evaluate(@NotNull String fragment, @NotNull XDebuggerEvaluator.XEvaluationCallback callback) {
+        XDebuggerEvaluator eval = session.getDebugProcess().getEvaluator();
+        XExpression expr = XExpressionImpl.fromText(fragment, EvaluationMode.CODE_FRAGMENT);
+        XSourcePosition currPos = session.getCurrentPosition();
+        eval.evaluate(expr, callback, currPos);
+    }
+
+    /**
+     * call the target VM's methods directly on the debugger manager thread.
+     * @return false if the value offers no reference and context to do so.
+     */
+    private boolean invokeDirectly(@NotNull final DirectCommand command) {
+        final Value docRef = valPdfDoc.getDescriptor().getValue();
+        final EvaluationContextImpl context = valPdfDoc.getEvaluationContext();
+        if(!(docRef instanceof ObjectReference) || context==null || context.getSuspendContext()==null) return false;
+        context.getDebugProcess().getManagerThread().schedule(new SuspendContextCommandImpl(context.getSuspendContext()) {
+            @Override
+            public void contextAction() throws Exception {
+                if(cancelled) return;
+                RemoteInvoker invoker = new RemoteInvoker(context, docRef.virtualMachine());
+                Runnable next;
+                try {
+                    next = command.run(invoker, (ObjectReference) docRef);
+                } catch (Exception ex) {
+                    // e.g. a target VM whose iText lacks one of the methods, the fragment degrades on its own
+                    invoker.release();
+                    LoggerHelper.info("Direct invocation failed, falling back to code fragments: " + ex.getMessage(),
+                            CloneRemotePdfDocument.class);
+                    command.failed();
+                    return;
+                }
+                next.run();
+            }
+
+            @Override
+            protected void commandCancelled() {
+                if(!cancelled) command.failed();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * take the snapshot, degrading one option at a time when the target VM rejects it.
+     * The direct path keeps what it already built: a failed debug PDF falls back to the serialized document,
+     * a failed transport step to the plain transfer, so the document is serialized once.
+     * Only when the direct path can't run or fails altogether, code fragments take over, see
+     * {@link #evaluateFragment(boolean, Transport, SnapshotMetrics.Measurement)}.
+     * @param remoteDebugBytes build the debug PDF in the target VM
+     * @param transport how the bytes are brought over
+     */
+    private void execute(final boolean remoteDebugBytes, final Transport transport) {
+        metrics.setTransport(describe(transport, remoteDebugBytes));
+        final SnapshotMetrics.Measurement evaluateTime = metrics.begin(SnapshotMetrics.Phase.EVALUATE);
+        boolean direct = invokeDirectly(new DirectCommand() {
+            @Override
+            public Runnable run(@NotNull final RemoteInvoker invoker, @NotNull ObjectReference doc) throws Exception {
+                ArrayReference bytes = SnapshotInvocations.serializedBytes(invoker, doc);
+                boolean debugBytes = false;
+                if(remoteDebugBytes && bytes!=null) {
+                    try {
+                        bytes = SnapshotInvocations.debugBytes(invoker, bytes, PdfDebugSettings.getInstance().fastSnapshot, scope);
+                        debugBytes = true;
+                    } catch (EvaluateException ex) {
+                        // e.g. iText in the target VM has no PdfWriter.getDebugBytes(), the serialized bytes will do
+                        LoggerHelper.info("Debug bytes failed in the target VM, transferring the serialized document: "
+                                + ex.getMessage(), CloneRemotePdfDocument.class);
+                    }
+                }
+                // the cache holds debug PDFs, a serialized document shares no blocks with them
+                Transport effective = debugBytes || transport!=Transport.DELTA ? transport : Transport.JDI;
+                ArrayReference payload = bytes;
+                String sideChannelPath = null;
+                SnapshotDelta delta = null;
+                int rawLength = -1;
+                if(bytes!=null) {
+                    try {
+                        if(effective==Transport.SIDE_CHANNEL) {
+                            sideChannelPath = SnapshotInvocations.isSideChannelVisible(invoker)
+                                    ? SnapshotInvocations.writeTempFile(invoker, bytes) : null;
+                            // e.g. a container attached through localhost, the bytes take the way of a remote target
+                            if(sideChannelPath==null) effective = chooseRemoteTransport(debugBytes);
                         }
-                        try {
-                            PdfDocument newPdfDoc = PdfDocumentHelper.deserialize(ba);
-                            onCloneSuccess(newPdfDoc);
-                        } catch (Exception ex) {
-                            onCloneError(ex);
+                        switch (effective) {
+                            case DELTA:
+                                int[][] hashes = SnapshotInvocations.blockHashes(invoker, bytes);
+                                delta = createDelta(hashes[0], hashes[1]);
+                                break;
+                            case COMPRESSED:
+                                ArrayReference deflated = SnapshotInvocations.deflate(invoker, bytes, PdfDebugSettings.getInstance().compressionLevel);
+                                if(deflated!=null) {
+                                    payload = deflated;
+                                    rawLength = bytes.length();
+                                }
+                                break;
                         }
+                    } catch (EvaluateException ex) {
+                        // e.g. no writable temp directory in the target VM, the bytes are there already
+                        LoggerHelper.info("Transport " + effective + " failed in the target VM, transferring the plain array: "
+                                + ex.getMessage(), CloneRemotePdfDocument.class);
+                        effective = Transport.JDI;
+                        payload = bytes;
+                        sideChannelPath = null;
+                        delta = null;
+                        rawLength = -1;
                     }
-                } else {
+                }
+                metrics.setTransport(describe(effective, debugBytes));
+                evaluateTime.end();
+                final ArrayReference bar = payload;
+                final String path = sideChannelPath;
+                final SnapshotDelta blocks = delta;
+                final int inflatedLength = rawLength;
+                final boolean isDebugBytes = debugBytes;
+                return new Runnable() {
+                    @Override
+                    public void run() {
+                        if(cancelled || bar==null) {
+                            invoker.release();
+                            if(!cancelled) deliver(null);
+                            return;
+                        }
+                        transfer(bar, path, blocks, inflatedLength, isDebugBytes, invoker, null);
+                    }
+                };
+            }
+
+            @Override
+            public void failed() {
+                evaluateFragment(remoteDebugBytes, transport, evaluateTime);
+            }
+        });
+        if(!direct) evaluateFragment(remoteDebugBytes, transport, evaluateTime);
+    }
+
+    /**
+     * same as {@link #execute(boolean, Transport)}, through a code fragment compiled by the IDE.
+     * The document is looked up by the variable name.
+     * A failed fragment degrades to the next cheaper fragment, never back to the direct path, which already
+     * failed or can't run; so each option is tried once.
+     */
+    private void evaluateFragment(final boolean remoteDebugBytes, final Transport transport,
+                                  @NotNull final SnapshotMetrics.Measurement evaluateTime) {
+        metrics.setTransport(describe(transport, remoteDebugBytes) + " (evaluator)");
+        String body = SnapshotExpressions.body(valPdfDoc.getName(), remoteDebugBytes,
+                PdfDebugSettings.getInstance().fastSnapshot, scope);
+        String tail;
+        switch (transport) {
+            case SIDE_CHANNEL:
+                tail = SnapshotSideChannel.FRAGMENT_TAIL;
+                break;
+            case DELTA:
+                tail = SnapshotDelta.FRAGMENT_TAIL;
+                break;
+            case COMPRESSED:
+                tail = SnapshotCompression.fragmentTail(PdfDebugSettings.getInstance().compressionLevel);
+                break;
+            default:
+                tail = SnapshotExpressions.BYTES_VAR;
+        }
+        evaluate(body + tail, new XDebuggerEvaluator.XEvaluationCallback() {
+            @Override
+            public void evaluated(@NotNull XValue result) {
+                evaluateTime.end();
+                if(cancelled) return;
+                if(!(result instanceof JavaValue)) {
                     onCloneError(new IllegalArgumentException("Unexpected type "+result.getClass()));
+                    return;
+                }
+                Value v = ((JavaValue) result).getDescriptor().getValue();
+                if(v==null) {
+                    deliver(null);
+                    return;
                 }
+                if(transport==Transport.JDI) {
+                    transfer((ArrayReference) v, null, null, -1, remoteDebugBytes, null, null);
+                    return;
+                }
+                // the other transports return {bytes, ...}
+                List<Value> envelope = ((ArrayReference) v).getValues();
+                Value bytes = envelope.get(SnapshotSideChannel.BYTES_INDEX);
+                if(bytes==null) {
+                    deliver(null);
+                } else if(transport==Transport.SIDE_CHANNEL) {
+                    String path = stringValue(envelope.get(SnapshotSideChannel.PATH_INDEX));
+                    boolean visible = SnapshotSideChannel.isVisible(path, ((ArrayReference) bytes).length());
+                    // later snapshots of this target VM take a remote transport when the file isn't visible
+                    SnapshotSideChannel.setVisibility(bytes.virtualMachine(), visible);
+                    if(path!=null && !visible) {
+                        deleteRemotely(path);
+                        path = null;
+                    }
+                    transfer((ArrayReference) bytes, path, null, -1, remoteDebugBytes, null, null);
+                } else if(transport==Transport.DELTA) {
+                    transfer((ArrayReference) bytes, null, createDelta(envelope), -1, remoteDebugBytes, null, null);
+                } else {
+                    int rawLength = parseLength(stringValue(envelope.get(SnapshotCompression.RAW_LENGTH_INDEX)));
+                    if(rawLength<0) {
+                        onCloneError(new IllegalStateException("Invalid raw length in the compressed snapshot"));
+                        return;
+                    }
+                    transfer((ArrayReference) bytes, null, null, rawLength, remoteDebugBytes, null, null);
+                }
+            }
+
+            @Override
+            public void errorOccurred(@NotNull String errorMessage) {
+                evaluateTime.end();
+                if(cancelled) return;
+                if(transport!=Transport.JDI) {
+                    // e.g. no writable temp directory in the target VM
+                    evaluateFragment(remoteDebugBytes, Transport.JDI, metrics.begin(SnapshotMetrics.Phase.EVALUATE));
+                } else if(remoteDebugBytes) {
+                    // e.g. iText in the target VM has no PdfWriter.getDebugBytes()
+                    evaluateFragment(false, Transport.JDI, metrics.begin(SnapshotMetrics.Phase.EVALUATE));
+                } else {
+                    onCloneError(new RuntimeException(errorMessage));
+                }
+            }
+        });
+    }
+
+    /**
+     * delete a side channel file the IDE can't see; a failure only leaves a file in the target's temp directory.
+     */
+    private void deleteRemotely(@NotNull final String path) {
+        evaluate(SnapshotSideChannel.deleteFragment(path), new XDebuggerEvaluator.XEvaluationCallback() {
+            @Override
+            public void evaluated(@NotNull XValue result) {
             }
 
             @Override
             public void errorOccurred(@NotNull String errorMessage) {
-                onCloneError(new RuntimeException(errorMessage));
+                LoggerHelper.warn("Cannot delete snapshot file " + path + ": " + errorMessage, CloneRemotePdfDocument.class);
             }
-        }, currPos);
+        });
+    }
+
+    private static String describe(Transport transport, boolean remoteDebugBytes) {
+        return transport.name().toLowerCase() + (remoteDebugBytes ? "" : "+serialized");
+    }
+
+    @Nullable
+    private SnapshotDelta createDelta(@NotNull List<Value> envelope) {
+        Value weak = envelope.get(SnapshotDelta.WEAK_INDEX);
+        Value strong = envelope.get(SnapshotDelta.STRONG_INDEX);
+        if(!(weak instanceof ArrayReference) || !(strong instanceof ArrayReference)) return null;
+        return createDelta(toIntArray((ArrayReference) weak), toIntArray((ArrayReference) strong));
+    }
+
+    @Nullable
+    private SnapshotDelta createDelta(@NotNull int[] weak, @NotNull int[] strong) {
+        byte[] previous = getPreviousSnapshot();
+        return previous==null ? null : new SnapshotDelta(previous, weak, strong);
+    }
+
+    /**
+     * @return the non-negative length <code>s</code> holds, or -1.
+     */
+    private static int parseLength(@Nullable String s) {
+        if(s==null) return -1;
+        try {
+            return Math.max(-1, Integer.parseInt(s));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    @Nullable
+    private static String stringValue(@Nullable Value v) {
+        return v instanceof StringReference ? ((StringReference) v).value() : null;
+    }
+
+    private static int[] toIntArray(@NotNull ArrayReference ar) {
+        List<Value> values = ar.getValues();
+        int[] result = new int[values.size()];
+        for(int i=0;i<result.length;i++) {
+            result[i] = ((IntegerValue) values.get(i)).value();
+        }
+        return result;
+    }
+
+    /**
+     * copy the snapshot bytes in the background, the transfer can be cancelled from the status bar.
+     * @param bar snapshot bytes living in the debug target VM
+     * @param sideChannelPath file holding the same bytes, preferred over JDI when readable from the IDE
+     * @param delta block hashes of <code>bar</code> against the previous snapshot, may be null
+     * @param rawLength length after inflating <code>bar</code>, or -1 if it isn't deflated
+     * @param isDebugBytes true if <code>bar</code> already holds the debug PDF, false if it's the serialized PdfDocument
+     * @param invoker keeps <code>bar</code> from garbage collection until the transfer is over; if null,
+     *                <code>bar</code> is a code fragment result and is pinned here for the transfer
+     * @param received what arrived of <code>bar</code> before an earlier transfer timed out, may be null
+     */
+    private void transfer(@NotNull final ArrayReference bar, @Nullable final String sideChannelPath,
+                          @Nullable final SnapshotDelta delta, final int rawLength, final boolean isDebugBytes,
+                          @Nullable final RemoteInvoker invoker, @Nullable final RemoteByteArrayReader.Partial received) {
+        if(invoker==null) {
+            // nothing references the fragment result in the target VM, a resume or step could collect it mid-transfer
+            try {
+                bar.disableCollection();
+            } catch (RuntimeException ex) {
+                if(!cancelled) onCloneError(ex);
+                return;
+            }
+        }
+        ProgressManager.getInstance().run(new Task.Backgroundable(session.getProject(), prefetch ? PREFETCH_TITLE : TRANSFER_TITLE, true) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                transferIndicator = indicator;
+                Thread thread = Thread.currentThread();
+                int priority = thread.getPriority();
+                if(prefetch) thread.setPriority(Thread.MIN_PRIORITY);
+                try {
+                    if(!cancelled) runTransfer(indicator, bar, sideChannelPath, delta, rawLength, isDebugBytes, received);
+                } catch (ProcessCanceledException pce) {
+                    throw pce;
+                } catch (RuntimeException ex) {
+                    // e.g. a transfer timeout, or the target VM going away in the middle of it
+                    if(!cancelled) onCloneError(ex);
+                } finally {
+                    // pooled threads are reused
+                    thread.setPriority(priority);
+                    if(invoker!=null) {
+                        if(keptForResume) invoker.forget(bar);
+                        invoker.release();
+                    } else if(!keptForResume) {
+                        enableCollection(bar);
+                    }
+                }
+            }
+        });
+    }
+
+    private static void enableCollection(@NotNull ArrayReference bar) {
+        try {
+            bar.enableCollection();
+        } catch (RuntimeException ignored) {
+            // the target VM is gone, there is nothing left to release
+        }
+    }
+
+    private void runTransfer(@NotNull ProgressIndicator indicator, @NotNull ArrayReference bar, @Nullable String sideChannelPath,
+                             @Nullable SnapshotDelta delta, int rawLength, boolean isDebugBytes,
+                             @Nullable RemoteByteArrayReader.Partial received) {
+        int length = bar.length();
+        indicator.setText(String.format("Transferring %d bytes of %s", length, valPdfDoc.getName()));
+        RemoteByteArrayReader remote = new RemoteByteArrayReader(bar);
+        SnapshotMetrics.Measurement transferTime = metrics.begin(SnapshotMetrics.Phase.TRANSFER);
+        byte[] ba = SnapshotSideChannel.read(sideChannelPath, length);
+        try {
+            if(ba==null && received!=null) {
+                ba = remote.resume(received, indicator);
+            }
+            if(ba==null && delta!=null) {
+                ba = delta.rebuild(remote, indicator);
+            }
+            if(ba==null && (rawLength>=0 || isDebugBytes)) {
+                // needed whole: a deflated payload is inflated in one go, a debug PDF is parsed by RUPS
+                ba = remote.read(indicator);
+            }
+        } catch (RemoteByteArrayReader.TransferTimeoutException ex) {
+            keepForResume(bar, rawLength, isDebugBytes, ex.getPartial());
+            throw ex;
+        }
+        if(ba!=null && rawLength>=0) {
+            try {
+                ba = SnapshotCompression.inflate(ba, rawLength, indicator);
+            } catch (DataFormatException ex) {
+                if(!cancelled) onCloneError(ex);
+                return;
+            }
+            LoggerHelper.info(String.format("%s: %d bytes deflated to %d (%.1f%%)",
+                    valPdfDoc.getName(), rawLength, length, 100.0 * length / rawLength), CloneRemotePdfDocument.class);
+        }
+        RemoteByteStream stream = null;
+        if(ba==null) {
+            // nothing but the deserialization needs these bytes, it parses them while the rest arrives
+            stream = new RemoteByteStream(remote, indicator);
+        }
+        if(stream==null) {
+            transferTime.end();
+            metrics.setWireBytes(remote.getBytesRead());
+        }
+        if(isDebugBytes) {
+            deliver(ba);
+            return;
+        }
+        try {
+            PdfDocument newPdfDoc;
+            if(stream!=null) {
+                indicator.setText("Transferring and deserializing " + valPdfDoc.getName());
+                long start = System.nanoTime();
+                // closing waits for the transfer thread, which must be done before the array is released
+                try (RemoteByteStream in = stream) {
+                    newPdfDoc = PdfDocumentHelper.deserialize(in);
+                }
+                // the phases overlap: deserialization is counted for what it adds after the last byte arrived
+                long total = System.nanoTime() - start;
+                long transfer = stream.getTransferNanos()<0 ? total : Math.min(total, stream.getTransferNanos());
+                metrics.record(SnapshotMetrics.Phase.TRANSFER, transfer, -1);
+                metrics.record(SnapshotMetrics.Phase.DESERIALIZE, total - transfer, -1);
+                metrics.setWireBytes(remote.getBytesRead());
+            } else {
+                indicator.setText("Deserializing " + valPdfDoc.getName());
+                SnapshotMetrics.Measurement deserializeTime = metrics.begin(SnapshotMetrics.Phase.DESERIALIZE);
+                newPdfDoc = PdfDocumentHelper.deserialize(ba);
+                deserializeTime.end();
+                ba = null;
+            }
+            // no cancellation point here, the clone is closed right away
+            SnapshotMetrics.Measurement debugBytesTime = metrics.begin(SnapshotMetrics.Phase.DEBUG_BYTES);
+            boolean skipCompression = PdfDebugSettings.getInstance().fastSnapshot;
+            // the whole document came over, only the scoped part is parsed and rendered
+            byte[] debugBytes = scope==null ? PdfDocumentHelper.getDebugBytes(newPdfDoc, skipCompression)
+                    : PdfDocumentHelper.getScopedBytes(newPdfDoc, scope, skipCompression);
+            debugBytesTime.end();
+            deliver(debugBytes);
+        } catch (ProcessCanceledException pce) {
+            throw pce;
+        } catch (Exception ex) {
+            if(!cancelled) onCloneError(ex);
+        }
+    }
+
+    /**
+     * keep <code>bar</code> pinned with what arrived of it, the next transfer of the same snapshot only asks for the rest.
+     */
+    private void keepForResume(@NotNull ArrayReference bar, int rawLength, boolean isDebugBytes,
+                               @Nullable RemoteByteArrayReader.Partial received) {
+        SnapshotCache.Key key = cacheKey;
+        if(received==null || key==null || cache==null) return;
+        cache.putPartial(key, new SnapshotCache.PartialTransfer(bar, rawLength, isDebugBytes, received));
+        keptForResume = true;
+    }
+
+    private void deliver(byte[] debugBytes) {
+        if(debugBytes!=null) metrics.setSnapshotBytes(debugBytes.length);
+        SnapshotCache.Key key = cacheKey;
+        if(debugBytes!=null && key!=null) {
+            cache.put(key, debugBytes);
+        }
+        if(!cancelled) onCloneSuccess(debugBytes);
     }
 
-    abstract void onCloneSuccess(PdfDocument newPdfDocument);
+    /**
+     * called on a background thread.
+     * @param debugBytes debug PDF of the remote document, or null if it isn't ready for the plugin.
+     */
+    abstract void onCloneSuccess(byte[] debugBytes);
     abstract void onCloneError(Throwable t);
 }
@@ -0,0 +1,164 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 2007-2018 iText Group NV
+ * Authors: Bruno Lowagie et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+
+package com.itextpdf.pdfdebug;
+
+import com.intellij.openapi.options.Configurable;
+import com.intellij.openapi.options.ConfigurationException;
+import org.jetbrains.annotations.Nls;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import java.awt.*;
+
+/**
+ * Settings page for {@link PdfDebugSettings}.
+ */
+public class PdfDebugConfigurable implements Configurable {
+    private JPanel panel;
+    private JCheckBox remoteDebugBytesBox;
+    private JSpinner cacheBudgetSpinner;
+    private JCheckBox deltaTransferBox;
+    private JSpinner compressionLevelSpinner;
+    private JCheckBox prefetchOnPauseBox;
+    private JCheckBox fastSnapshotBox;
+    private JSpinner historyBudgetSpinner;
+    private JSpinner maxDocumentTabsSpinner;
+
+    @Nls
+    @Override
+    public String getDisplayName() {
+        return "pdfDebug";
+    }
+
+    @Nullable
+    @Override
+    public String getHelpTopic() {
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public JComponent createComponent() {
+        panel = new JPanel();
+        panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
+        remoteDebugBytesBox = new JCheckBox("Build debug PDF in the target VM (skips deserialization in the IDE)");
+        panel.add(remoteDebugBytesBox);
+        cacheBudgetSpinner = new JSpinner(new SpinnerNumberModel(256, 0, 8192, 32));
+        addRow("Snapshot cache budget (MB):", cacheBudgetSpinner);
+        deltaTransferBox = new JCheckBox("Transfer only blocks changed since the previous snapshot");
+        panel.add(deltaTransferBox);
+        compressionLevelSpinner = new JSpinner(new SpinnerNumberModel(1, 0, 9, 1));
+        addRow("Compression level for snapshots above 1 MB (0 = off):", compressionLevelSpinner);
+        prefetchOnPauseBox = new JCheckBox("Prefetch PdfDocument variables when the debugger pauses with the pdfDebug window open");
+        panel.add(prefetchOnPauseBox);
+        fastSnapshotBox = new JCheckBox("Fast snapshots: leave the streams of the debug PDF uncompressed");
+        panel.add(fastSnapshotBox);
+        historyBudgetSpinner = new JSpinner(new SpinnerNumberModel(512, 0, 65536, 64));
+        addRow("Snapshot history on disk (MB, 0 = off):", historyBudgetSpinner);
+        maxDocumentTabsSpinner = new JSpinner(new SpinnerNumberModel(4, 1, 16, 1));
+        addRow("Documents open side by side:", maxDocumentTabsSpinner);
+        return panel;
+    }
+
+    private void addRow(String label, JComponent comp) {
+        JPanel row = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        row.add(new JLabel(label));
+        row.add(comp);
+        panel.add(row);
+    }
+
+    @Override
+    public boolean isModified() {
+        PdfDebugSettings settings = PdfDebugSettings.getInstance();
+        return remoteDebugBytesBox.isSelected()!=settings.remoteDebugBytes
+                || (Integer) cacheBudgetSpinner.getValue()!=settings.cacheBudgetMb
+                || deltaTransferBox.isSelected()!=settings.deltaTransfer
+                || (Integer) compressionLevelSpinner.getValue()!=settings.compressionLevel
+                || prefetchOnPauseBox.isSelected()!=settings.prefetchOnPause
+                || fastSnapshotBox.isSelected()!=settings.fastSnapshot
+                || (Integer) historyBudgetSpinner.getValue()!=settings.historyBudgetMb
+                || (Integer) maxDocumentTabsSpinner.getValue()!=settings.maxDocumentTabs;
+    }
+
+    @Override
+    public void apply() throws ConfigurationException {
+        PdfDebugSettings settings = PdfDebugSettings.getInstance();
+        settings.remoteDebugBytes = remoteDebugBytesBox.isSelected();
+        settings.cacheBudgetMb = (Integer) cacheBudgetSpinner.getValue();
+        settings.deltaTransfer = deltaTransferBox.isSelected();
+        settings.compressionLevel = (Integer) compressionLevelSpinner.getValue();
+        settings.prefetchOnPause = prefetchOnPauseBox.isSelected();
+        settings.fastSnapshot = fastSnapshotBox.isSelected();
+        settings.historyBudgetMb = (Integer) historyBudgetSpinner.getValue();
+        settings.maxDocumentTabs = (Integer) maxDocumentTabsSpinner.getValue();
+    }
+
+    @Override
+    public void reset() {
+        PdfDebugSettings settings = PdfDebugSettings.getInstance();
+        remoteDebugBytesBox.setSelected(settings.remoteDebugBytes);
+        cacheBudgetSpinner.setValue(settings.cacheBudgetMb);
+        deltaTransferBox.setSelected(settings.deltaTransfer);
+        compressionLevelSpinner.setValue(settings.compressionLevel);
+        prefetchOnPauseBox.setSelected(settings.prefetchOnPause);
+        fastSnapshotBox.setSelected(settings.fastSnapshot);
+        historyBudgetSpinner.setValue(settings.historyBudgetMb);
+        maxDocumentTabsSpinner.setValue(settings.maxDocumentTabs);
+    }
+
+    @Override
+    public void disposeUIResources() {
+        panel = null;
+        remoteDebugBytesBox = null;
+        cacheBudgetSpinner = null;
+        deltaTransferBox = null;
+        compressionLevelSpinner = null;
+        prefetchOnPauseBox = null;
+        fastSnapshotBox = null;
+        historyBudgetSpinner = null;
+        maxDocumentTabsSpinner = null;
+    }
+}
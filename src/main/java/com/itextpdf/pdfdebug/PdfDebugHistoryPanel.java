@@ -0,0 +1,196 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 2007-2018 iText Group NV
+ * Authors: Bruno Lowagie et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+
+package com.itextpdf.pdfdebug;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.table.JBTable;
+import com.intellij.util.Consumer;
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Tool window tab listing the snapshots of {@link SnapshotStore}, newest first.
+ */
+final class PdfDebugHistoryPanel extends JPanel implements Disposable {
+    static final String TAB_NAME = "Snapshot history";
+
+    private static final String[] COLUMNS = {"Time", "Session", "Variable", "Size KB"};
+
+    private final SnapshotStore store;
+    private final String projectKey;
+    private final HistoryTableModel model = new HistoryTableModel();
+    private final JBTable table = new JBTable(model);
+    private final JLabel storedLabel = new JLabel();
+    private final Runnable storeListener = new Runnable() {
+        @Override
+        public void run() {
+            // the store may be busy writing, it's read off EDT
+            ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+                @Override
+                public void run() {
+                    final List<SnapshotStore.Entry> entries = store.getEntries(projectKey);
+                    final double storedMb = store.getStoredMb();
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            model.setRows(entries, storedMb);
+                        }
+                    });
+                }
+            });
+        }
+    };
+
+    /**
+     * @param projectKey only the snapshots of this project are listed
+     * @param onOpen called on EDT with the snapshot to reopen
+     */
+    PdfDebugHistoryPanel(@NotNull SnapshotStore store, @NotNull String projectKey, @NotNull final Consumer<SnapshotStore.Entry> onOpen) {
+        super(new BorderLayout());
+        this.store = store;
+        this.projectKey = projectKey;
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JButton openButton = new JButton("Open");
+        openButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                openSelected(onOpen);
+            }
+        });
+        buttons.add(openButton);
+        JButton clearButton = new JButton("Clear history");
+        clearButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        PdfDebugHistoryPanel.this.store.clear();
+                    }
+                });
+            }
+        });
+        buttons.add(clearButton);
+        buttons.add(storedLabel);
+        add(buttons, BorderLayout.NORTH);
+
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if(e.getClickCount()==2) openSelected(onOpen);
+            }
+        });
+        add(new JBScrollPane(table), BorderLayout.CENTER);
+
+        store.addListener(storeListener);
+        storeListener.run();
+    }
+
+    private void openSelected(Consumer<SnapshotStore.Entry> onOpen) {
+        int row = table.getSelectedRow();
+        if(row>=0) onOpen.consume(model.rows.get(row));
+    }
+
+    @Override
+    public void dispose() {
+        store.removeListener(storeListener);
+    }
+
+    private final class HistoryTableModel extends AbstractTableModel {
+        private List<SnapshotStore.Entry> rows = new ArrayList<SnapshotStore.Entry>();
+
+        void setRows(@NotNull List<SnapshotStore.Entry> entries, double storedMb) {
+            rows = entries;
+            storedLabel.setText(String.format("%d snapshots, %.1f MB on disk", rows.size(), storedMb));
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Object getValueAt(int rowIndex, int column) {
+            SnapshotStore.Entry entry = rows.get(rowIndex);
+            switch (column) {
+                case 0:
+                    return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(entry.getTime()));
+                case 1:
+                    return entry.getSession();
+                case 2:
+                    return entry.getDocument();
+                default:
+                    return String.format("%.1f", entry.getLength() / 1024.0);
+            }
+        }
+    }
+}
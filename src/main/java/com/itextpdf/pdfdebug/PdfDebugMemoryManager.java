@@ -0,0 +1,116 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 2007-2018 iText Group NV
+ * Authors: Bruno Lowagie et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+
+package com.itextpdf.pdfdebug;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.util.LowMemoryWatcher;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Keeps track of the memory pdfDebug retains in the IDE and gives it back under heap pressure.
+ * Accounted are the bytes of the snapshot cache and of the documents loaded into the RUPS tabs,
+ * each of which keeps its own copy of the raw PDF next to the parsed model. The parsed models can't be measured
+ * and are the larger part, so under pressure the idle tabs are closed along with the cache.
+ */
+final class PdfDebugMemoryManager implements Disposable {
+    private static final double MB = 1024 * 1024;
+
+    private final SnapshotCache cache;
+    private final Runnable releaseIdleViews;
+    private final Runnable onFootprintChange;
+    private volatile long viewBytes;
+
+    /**
+     * @param cache snapshot cache emptied when the IDE runs low on memory
+     * @param releaseIdleViews closes the RUPS tabs the user doesn't look at, with their engines; called on any thread
+     * @param onFootprintChange called on any thread after the footprint changed
+     */
+    PdfDebugMemoryManager(@NotNull SnapshotCache cache, @NotNull Runnable releaseIdleViews, @NotNull Runnable onFootprintChange) {
+        this.cache = cache;
+        this.releaseIdleViews = releaseIdleViews;
+        this.onFootprintChange = onFootprintChange;
+        LowMemoryWatcher.register(new Runnable() {
+            @Override
+            public void run() {
+                // snapshots can always be cloned again, and documents loaded again; the shown tab is what the user looks at
+                releaseSnapshots();
+                PdfDebugMemoryManager.this.releaseIdleViews.run();
+            }
+        }, this);
+    }
+
+    /**
+     * @param bytes length of the raw PDFs loaded into the RUPS tabs, 0 after they were all disposed.
+     */
+    void setViewBytes(long bytes) {
+        viewBytes = bytes;
+        onFootprintChange.run();
+    }
+
+    void snapshotsChanged() {
+        onFootprintChange.run();
+    }
+
+    void releaseSnapshots() {
+        cache.clear();
+        onFootprintChange.run();
+    }
+
+    long getFootprint() {
+        return cache.getTotalBytes() + viewBytes;
+    }
+
+    @NotNull
+    String describeFootprint() {
+        return String.format("%.1f MB (snapshots %.1f MB, views %.1f MB raw)",
+                getFootprint() / MB, cache.getTotalBytes() / MB, viewBytes / MB);
+    }
+
+    @Override
+    public void dispose() {
+        // LowMemoryWatcher registration is released through this parent
+    }
+}
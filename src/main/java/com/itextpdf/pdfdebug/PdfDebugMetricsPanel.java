@@ -0,0 +1,210 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 2007-2018 iText Group NV
+ * Authors: Bruno Lowagie et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+
+package com.itextpdf.pdfdebug;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.fileChooser.FileChooserFactory;
+import com.intellij.openapi.fileChooser.FileSaverDescriptor;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.vfs.VirtualFileWrapper;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.table.JBTable;
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Tool window tab listing the measured phases of the last snapshots, newest first.
+ */
+final class PdfDebugMetricsPanel extends JPanel implements Disposable {
+    static final String TAB_NAME = "Snapshot metrics";
+
+    private static final SnapshotMetrics.Phase[] PHASES = SnapshotMetrics.Phase.values();
+    private static final String[] FIXED_COLUMNS = {"Time", "Variable", "Transport", "JDI KB", "Snapshot KB", "Changed objects"};
+    private static final double KB = 1024;
+
+    private final Project project;
+    private final SnapshotMetricsLog log;
+    private final MetricsTableModel model = new MetricsTableModel();
+    private final Runnable logListener = new Runnable() {
+        @Override
+        public void run() {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    model.refresh();
+                }
+            });
+        }
+    };
+
+    PdfDebugMetricsPanel(@NotNull Project project, @NotNull SnapshotMetricsLog log) {
+        super(new BorderLayout());
+        this.project = project;
+        this.log = log;
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        buttons.add(createButton("Export CSV...", new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                export("csv", log.toCsv());
+            }
+        }));
+        buttons.add(createButton("Export JSON...", new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                export("json", log.toJson());
+            }
+        }));
+        buttons.add(createButton("Clear", new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                log.clear();
+            }
+        }));
+        add(buttons, BorderLayout.NORTH);
+        add(new JBScrollPane(new JBTable(model)), BorderLayout.CENTER);
+
+        log.addListener(logListener);
+        model.refresh();
+    }
+
+    private static JButton createButton(String text, ActionListener listener) {
+        JButton button = new JButton(text);
+        button.addActionListener(listener);
+        return button;
+    }
+
+    private void export(@NotNull String extension, @NotNull String text) {
+        FileSaverDescriptor descriptor = new FileSaverDescriptor("Export pdfDebug Metrics", "", extension);
+        VirtualFileWrapper target = FileChooserFactory.getInstance().createSaveFileDialog(descriptor, project)
+                .save(null, "pdfdebug-metrics." + extension);
+        if(target==null) return;
+        try {
+            Files.write(target.getFile().toPath(), text.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ex) {
+            Messages.showErrorDialog(project, ex.getMessage(), "Export pdfDebug Metrics");
+        }
+    }
+
+    @Override
+    public void dispose() {
+        log.removeListener(logListener);
+    }
+
+    private final class MetricsTableModel extends AbstractTableModel {
+        private List<SnapshotMetrics> rows = new ArrayList<SnapshotMetrics>();
+
+        void refresh() {
+            rows = log.getEntries();
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return FIXED_COLUMNS.length + PHASES.length + 2;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            if(column<FIXED_COLUMNS.length) return FIXED_COLUMNS[column];
+            column -= FIXED_COLUMNS.length;
+            if(column<PHASES.length) return PHASES[column].getTitle() + " ms";
+            return column==PHASES.length ? "Total ms" : "Allocated KB";
+        }
+
+        @Override
+        public Object getValueAt(int rowIndex, int column) {
+            SnapshotMetrics m = rows.get(rows.size() - 1 - rowIndex);
+            switch (column) {
+                case 0:
+                    return new SimpleDateFormat("HH:mm:ss").format(new Date(m.getStartedAt()));
+                case 1:
+                    return m.isPrefetch() ? m.getDocument() + " (prefetch)" : m.getDocument();
+                case 2:
+                    return m.getTransport();
+                case 3:
+                    return formatKb(m.getWireBytes());
+                case 4:
+                    return formatKb(m.getSnapshotBytes());
+                case 5:
+                    return m.getChangedObjects()<0 ? "" : String.valueOf(m.getChangedObjects());
+            }
+            column -= FIXED_COLUMNS.length;
+            if(column<PHASES.length) {
+                double ms = m.getMillis(PHASES[column]);
+                return ms<0 ? "" : SnapshotMetricsLog.formatMillis(ms);
+            }
+            if(column==PHASES.length) return SnapshotMetricsLog.formatMillis(m.getTotalMillis());
+            long allocated = 0;
+            for(SnapshotMetrics.Phase phase : PHASES) {
+                allocated += Math.max(0, m.getAllocatedBytes(phase));
+            }
+            return formatKb(allocated);
+        }
+
+        private String formatKb(long bytes) {
+            return bytes<0 ? "" : String.format("%.1f", bytes / KB);
+        }
+    }
+}
@@ -45,17 +45,30 @@
 
 package com.itextpdf.pdfdebug;
 
+import com.intellij.debugger.engine.DebugProcessImpl;
+import com.intellij.debugger.engine.JavaDebugProcess;
 import com.intellij.debugger.engine.JavaValue;
 import com.intellij.debugger.ui.DebuggerContentInfo;
+import com.intellij.icons.AllIcons;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.ProjectComponent;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.wm.ToolWindow;
 import com.intellij.openapi.wm.ToolWindowAnchor;
 import com.intellij.openapi.wm.ToolWindowManager;
 import com.intellij.openapi.wm.WindowManager;
+import com.intellij.openapi.wm.ex.ToolWindowEx;
 import com.intellij.ui.content.Content;
 import com.intellij.ui.content.ContentFactory;
+import com.intellij.ui.content.ContentManagerAdapter;
+import com.intellij.ui.content.ContentManagerEvent;
+import com.intellij.util.Alarm;
+import com.intellij.util.Consumer;
 import com.intellij.util.messages.MessageBusConnection;
 import com.intellij.xdebugger.*;
 import com.intellij.xdebugger.frame.XValueContainer;
@@ -66,6 +79,7 @@ import com.itextpdf.kernel.pdf.PdfReader;
 import com.itextpdf.rups.Rups;
 import com.itextpdf.rups.event.RupsEvent;
 import com.itextpdf.rups.model.LoggerHelper;
+import com.sun.jdi.VMDisconnectedException;
 import icons.PdfIcons;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -77,19 +91,54 @@ import javax.swing.tree.TreePath;
 import java.awt.*;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class PdfDebugProjectComponent implements ProjectComponent {
     private static final String NOT_READY_FOR_PLUGIN_MESSAGE = "Cannot get PdfDocument. "
             + "\nMake sure you create reader from stream or string and writer is set to DebugMode.";
     public static final String TYPE_PDF_DOCUMENT = "com.itextpdf.kernel.pdf.PdfDocument";
     public static final String WIN_ID_PDFDEBUG = "pdfDebug";
+    /**
+     * selections arriving faster than this, e.g. while arrowing through Variables, are coalesced.
+     */
+    private static final int SELECTION_DEBOUNCE_MS = 300;
+    private static final int MAX_DESCRIBED_CHANGES = 20;
     private Project project;
     private MessageBusConnection busConn;
+    private Alarm selectionAlarm;
+    private final SnapshotCache snapshotCache = new SnapshotCache();
+    private final SnapshotMetricsLog metricsLog = new SnapshotMetricsLog();
+    private PdfDebugMemoryManager memoryManager;
+    private PdfDocumentPrefetcher prefetcher;
     private volatile TreeSelectionListener variableSelectionListener;
-    private volatile Rups rups;
+    private final RupsPool rupsPool = new RupsPool();
     private volatile XDebuggerTree variablesTree;
+    /**
+     * part of the documents shown, null for all of it.
+     */
+    private volatile SnapshotScope snapshotScope;
+    /**
+     * number of the current pause, tells a re-selection from the first selection after a pause.
+     */
+    private final AtomicInteger pauses = new AtomicInteger();
+    /**
+     * RUPS engine built ahead of time with its holder, taken over by the next document tab opened. EDT only.
+     */
+    private Rups spareRups;
+    private JPanel spareHolder;
+    /**
+     * history label of each debug session: its name and start time, as run configurations are debugged again and again.
+     */
+    private final Map<XDebugSession, String> sessionLabels = Collections.synchronizedMap(new WeakHashMap<XDebugSession, String>());
 
     public PdfDebugProjectComponent(@NotNull Project proj) {
         this.project = proj;
@@ -113,14 +162,39 @@ public class PdfDebugProjectComponent implements ProjectComponent {
     @Override
     public void projectOpened() {
         busConn = project.getMessageBus().connect();
+        selectionAlarm = new Alarm(Alarm.ThreadToUse.SWING_THREAD, project);
+        memoryManager = new PdfDebugMemoryManager(snapshotCache, new Runnable() {
+            @Override
+            public void run() {
+                releaseIdleViews();
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                showFootprint();
+            }
+        });
+        Disposer.register(project, memoryManager);
+        prefetcher = new PdfDocumentPrefetcher(snapshotCache, metricsLog, new Runnable() {
+            @Override
+            public void run() {
+                memoryManager.snapshotsChanged();
+            }
+        });
         busConn.subscribe(XDebuggerManager.TOPIC, new XDebuggerManagerListener() {
             @Override
             public void processStarted(@NotNull XDebugProcess debugProcess) {
                 XDebugSession sess = debugProcess.getSession();
+                sessionLabels.put(sess, sess.getSessionName() + " " + new SimpleDateFormat("HH:mm:ss").format(new Date()));
+                // most sessions never see a PdfDocument, their target VM usually isn't attached yet either
+                final AtomicBoolean warmed = new AtomicBoolean();
+                prewarmIfUsed(debugProcess, warmed);
 
                 sess.addSessionListener(new XDebugSessionListener() {
                     @Override
                     public void sessionPaused() {
+                        pauses.incrementAndGet();
+                        prewarmIfUsed(debugProcess, warmed);
                         // current thread is not EDT
                         // ensuring 'variablesTree' has right reference
                         if(variablesTree==null) {
@@ -130,12 +204,27 @@ public class PdfDebugProjectComponent implements ProjectComponent {
                                 @Override
                                 public void valueChanged(TreeSelectionEvent e) {
                                     if(e.isAddedPath()) {
-                                        updateRupsContent();
+                                        scheduleRupsContentUpdate();
                                     }
                                 }
                             };
                             variablesTree.addTreeSelectionListener(variableSelectionListener);
                         }
+                        // prefetching for a tool window nobody looks at would only load the debuggee
+                        if(isPdfWindowVisible()) {
+                            prefetcher.start(sess, snapshotScope);
+                        }
+                    }
+
+                    @Override
+                    public void sessionResumed() {
+                        // resume or step, whatever was prefetched for this pause is stale
+                        prefetcher.cancel();
+                    }
+
+                    @Override
+                    public void sessionStopped() {
+                        prefetcher.cancel();
                     }
                 });
             }
@@ -148,28 +237,103 @@ public class PdfDebugProjectComponent implements ProjectComponent {
                         variablesTree = null;
                     }
                 }
-                disposePdfWindow();
+                // object ids are meaningless once the target VM is gone
+                prefetcher.cancel();
+                memoryManager.releaseSnapshots();
+                closeLiveTabs();
+                dropSpareRups();
+            }
+        });
+    }
+
+    /**
+     * {@link #prewarm()} once per session, as soon as the PDF tool window is open or the target VM has loaded
+     * {@link #TYPE_PDF_DOCUMENT}.
+     */
+    private void prewarmIfUsed(@NotNull XDebugProcess debugProcess, @NotNull AtomicBoolean warmed) {
+        if(warmed.get()) return;
+        if((isPdfWindowVisible() || hasLoadedPdfDocument(debugProcess)) && warmed.compareAndSet(false, true)) {
+            prewarm();
+        }
+    }
+
+    private static boolean hasLoadedPdfDocument(@NotNull XDebugProcess debugProcess) {
+        if(!(debugProcess instanceof JavaDebugProcess)) return false;
+        DebugProcessImpl process = ((JavaDebugProcess) debugProcess).getDebuggerSession().getProcess();
+        if(!process.isAttached()) return false;
+        try {
+            return !process.getVirtualMachineProxy().classesByName(TYPE_PDF_DOCUMENT).isEmpty();
+        } catch (VMDisconnectedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * load iText and RUPS in the background and build a RUPS engine, so that selecting the first
+     * document doesn't freeze EDT with their cold start.
+     */
+    private void prewarm() {
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            @Override
+            public void run() {
+                PdfDebugWarmup.loadClasses();
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        prebuildRups();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * MUST be called on EDT. The classes are loaded by now, what's left is building the Swing components.
+     */
+    private void prebuildRups() {
+        if(project.isDisposed() || spareRups!=null) return;
+        JFrame ideaFrame = WindowManager.getInstance().getFrame(project);
+        if(ideaFrame==null) return;
+        JPanel holder = new JPanel(new BorderLayout());
+        // the tool window isn't registered yet, it takes about a third of the frame once it is
+        Dimension size = new Dimension(ideaFrame.getWidth() / 3, ideaFrame.getHeight());
+        spareRups = Rups.startNewPlugin(holder, size, ideaFrame);
+        spareHolder = holder;
+    }
+
+    private void dropSpareRups() {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                spareRups = null;
+                spareHolder = null;
             }
         });
     }
 
+    private void scheduleRupsContentUpdate() {
+        selectionAlarm.cancelAllRequests();
+        selectionAlarm.addRequest(new Runnable() {
+            @Override
+            public void run() {
+                updateRupsContent();
+            }
+        }, SELECTION_DEBOUNCE_MS);
+    }
+
     private void updateRupsContent() {
         ApplicationManager.getApplication().assertIsDispatchThread();
         if(variablesTree==null) return;
 
+        // selecting something else keeps the document tabs, each with what its RUPS engine parsed
         TreePath path = variablesTree.getSelectionPath();
-        if(path==null) {
-            disposePdfWindow();
-        } else {
-            Object obj = path.getLastPathComponent();
-            if(obj instanceof XValueNodeImpl) {
-                XValueContainer vc = ((XValueNodeImpl) obj).getValueContainer();
-                JavaValue pdfJv = extractPdfDocument(vc);
-                if(pdfJv!=null) {
-                    showPdfWindowEdtOnly(pdfJv);
-                } else {
-                    disposePdfWindow();
-                }
+        if(path==null) return;
+        Object obj = path.getLastPathComponent();
+        if(obj instanceof XValueNodeImpl) {
+            XValueContainer vc = ((XValueNodeImpl) obj).getValueContainer();
+            JavaValue pdfJv = extractPdfDocument(vc);
+            if(pdfJv!=null) {
+                showPdfWindowEdtOnly(pdfJv);
             }
         }
     }
@@ -180,76 +344,70 @@ public class PdfDebugProjectComponent implements ProjectComponent {
      */
     private void showPdfWindowEdtOnly(@NotNull JavaValue pdfDocVar) {
         ApplicationManager.getApplication().assertIsDispatchThread();
+        final long openStart = System.nanoTime();
 
         ToolWindowManager wm = ToolWindowManager.getInstance(project);
-        ContentFactory cFactory = ContentFactory.SERVICE.getInstance();
         JFrame ideaFrame = WindowManager.getInstance().getFrame(project);
-
-        ToolWindow pdfDebugWin = wm.getToolWindow(WIN_ID_PDFDEBUG);
-        if(pdfDebugWin==null) {
-            pdfDebugWin = wm.registerToolWindow("pdfDebug", false, ToolWindowAnchor.RIGHT);
-            pdfDebugWin.setIcon(PdfIcons.ACTION_PDF_DEBUG);
-        }
+        ToolWindow pdfDebugWin = getOrRegisterPdfWindow();
 
         String name = pdfDocVar.getName();
-        Content content = pdfDebugWin.getContentManager().findContent(name);
-        if(content==null) {
-            JPanel rupsHolder = new JPanel(new BorderLayout());
-            content = cFactory.createContent(rupsHolder, name, true);
-            pdfDebugWin.getContentManager().addContent(content);
+        RupsPool.View view = findView(name);
+        final boolean firstOpen = view==null;
+        if(view==null) {
+            view = addView(pdfDebugWin, name, false);
         }
-        JComponent holderComp = content.getComponent();
+        pdfDebugWin.getContentManager().setSelectedContent(view.getContent());
+        final RupsPool.View shownView = view;
 
         Runnable afterActivateRunner = new Runnable() {
             @Override
             public void run() {
-                Dimension holderSize = holderComp.getSize();
-                if(rups==null) {
-                    rups = Rups.startNewPlugin(holderComp, holderSize, ideaFrame);
+                if(!rupsPool.contains(shownView)) return;
+                if(shownView.getRups()==null) {
+                    JComponent holderComp = shownView.getHolder();
+                    shownView.setRups(Rups.startNewPlugin(holderComp, holderComp.getSize(), ideaFrame));
                 }
                 XDebugSession dSess = XDebuggerManager.getInstance(project).getCurrentSession();
-                new CloneRemotePdfDocument(pdfDocVar, dSess) {
+                final SnapshotScope scope = snapshotScope;
+                final String session = sessionLabel(dSess);
+                CloneRemotePdfDocument clone = new CloneRemotePdfDocument(pdfDocVar, dSess, snapshotCache) {
                     @Override
-                    void onCloneSuccess(PdfDocument newPdfDocument) {
-                        if(newPdfDocument==null) {
+                    void onCloneSuccess(byte[] dbgBytes) {
+                        metricsLog.add(getMetrics());
+                        memoryManager.snapshotsChanged();
+                        if(dbgBytes==null) {
                             LoggerHelper.error(NOT_READY_FOR_PLUGIN_MESSAGE, PdfDebugProjectComponent.class);
                         } else {
-                            ByteArrayInputStream bais = null;
-                            try {
-                                byte[] dbgBytes = PdfDocumentHelper.getDebugBytes(newPdfDocument);
-                                bais = new ByteArrayInputStream(dbgBytes);
-                                PdfReader reader = new PdfReader(bais);
-                                PdfDocument tempDoc = new PdfDocument(reader);
-
-                                boolean isEqual = rups.compareWithDocument(tempDoc, true);
-                                if(!isEqual) {
-                                    listenOnetimeForHighlight(rups);
-                                    rups.loadDocumentFromRawContent(dbgBytes, name, null, true);
-                                } else {
-                                    rups.highlightLastSavedChanges();
-                                }
-                            } catch (Exception ex) {
-                                LoggerHelper.error("Error while reading pdf file.", ex, PdfDebugProjectComponent.class);
-                                ex.printStackTrace();
-                            } finally {
-                                try {
-                                    if(bais!=null) bais.close();
-                                } catch (IOException ioex) {
-                                    // never happens
-                                }
-                            }
+                            storeSnapshot(session, scope==null ? name : name + " [" + scope + "]", dbgBytes);
+                            showDebugBytes(dbgBytes, shownView, this);
                         }
                     }
 
                     @Override
                     void onCloneError(Throwable t) {
+                        metricsLog.add(getMetrics());
                         Exception ex = null;
                         if(t instanceof Exception) {
                             ex = (Exception) t;
                         }
                         LoggerHelper.warn("Failed to reconstruct PdfDocument instance", ex, PdfDebugProjectComponent.class);
                     }
-                }.execute();
+                };
+                clone.setScope(scope);
+                // selecting the document again in the same pause asks for a fresh snapshot,
+                // e.g. after editing it from the Evaluate dialog, which the fingerprint may not notice
+                clone.setBypassCache(shownView.request(pauses.get()));
+                // only a previous clone of the same tab is stale, the other tabs' clones go on in parallel
+                shownView.setClone(clone);
+                recordOpen(clone.getMetrics(), System.nanoTime() - openStart, firstOpen);
+                final CloneRemotePdfDocument userClone = clone;
+                boolean joined = prefetcher.join(pdfDocVar.getDescriptor().getValue(), new Runnable() {
+                    @Override
+                    public void run() {
+                        if(!userClone.isCancelled()) userClone.execute();
+                    }
+                });
+                if(!joined) clone.execute();
             }
         };
 
@@ -259,7 +417,330 @@ public class PdfDebugProjectComponent implements ProjectComponent {
         }
     }
 
-    private static void listenOnetimeForHighlight(Rups rups) {
+    /**
+     * MUST be called on EDT. The window outlives the debug sessions, its history tab is meant for finished ones too.
+     */
+    @NotNull
+    private ToolWindow getOrRegisterPdfWindow() {
+        ToolWindowManager wm = ToolWindowManager.getInstance(project);
+        ToolWindow pdfDebugWin = wm.getToolWindow(WIN_ID_PDFDEBUG);
+        if(pdfDebugWin==null) {
+            pdfDebugWin = wm.registerToolWindow("pdfDebug", false, ToolWindowAnchor.RIGHT);
+            pdfDebugWin.setIcon(PdfIcons.ACTION_PDF_DEBUG);
+            if(pdfDebugWin instanceof ToolWindowEx) {
+                ((ToolWindowEx) pdfDebugWin).setTitleActions(createScopeAction());
+            }
+            pdfDebugWin.getContentManager().addContentManagerListener(new ContentManagerAdapter() {
+                @Override
+                public void contentRemoved(ContentManagerEvent event) {
+                    // closed by the user or evicted, either way its engine goes with it
+                    rupsPool.remove(event.getContent().getDisplayName());
+                    memoryManager.setViewBytes(rupsPool.getLoadedBytes());
+                }
+            });
+        }
+        if(pdfDebugWin.getContentManager().findContent(PdfDebugMetricsPanel.TAB_NAME)==null) {
+            addToolTab(pdfDebugWin, PdfDebugMetricsPanel.TAB_NAME, new PdfDebugMetricsPanel(project, metricsLog));
+        }
+        if(pdfDebugWin.getContentManager().findContent(PdfDebugHistoryPanel.TAB_NAME)==null) {
+            addToolTab(pdfDebugWin, PdfDebugHistoryPanel.TAB_NAME, new PdfDebugHistoryPanel(SnapshotStore.getInstance(), project.getLocationHash(),
+                    new Consumer<SnapshotStore.Entry>() {
+                        @Override
+                        public void consume(SnapshotStore.Entry entry) {
+                            openStoredSnapshot(entry);
+                        }
+                    }));
+        }
+        return pdfDebugWin;
+    }
+
+    /**
+     * MUST be called on EDT.
+     * @return the pooled tab of <code>name</code>, or null if there is none or it was closed meanwhile.
+     */
+    @Nullable
+    private RupsPool.View findView(@NotNull String name) {
+        RupsPool.View view = rupsPool.get(name);
+        if(view!=null && view.getContent().getManager()==null) {
+            rupsPool.remove(name);
+            view = null;
+        }
+        return view;
+    }
+
+    /**
+     * add a document tab to the pool, taking over the prebuilt RUPS engine if there is one,
+     * and close the tabs evicted for it. MUST be called on EDT.
+     * @param stored true for a snapshot of the history, which outlives the debug session
+     */
+    @NotNull
+    private RupsPool.View addView(@NotNull ToolWindow pdfDebugWin, @NotNull String name, boolean stored) {
+        JPanel rupsHolder;
+        Rups prebuilt = spareRups;
+        if(prebuilt!=null) {
+            rupsHolder = spareHolder;
+            spareRups = null;
+            spareHolder = null;
+            // have one ready for the next document as well
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    prebuildRups();
+                }
+            });
+        } else {
+            rupsHolder = new JPanel(new BorderLayout());
+        }
+        Content content = ContentFactory.SERVICE.getInstance().createContent(rupsHolder, name, true);
+        RupsPool.View view = new RupsPool.View(name, content, prebuilt, stored);
+        pdfDebugWin.getContentManager().addContent(content);
+        for(RupsPool.View evicted : rupsPool.add(view)) {
+            pdfDebugWin.getContentManager().removeContent(evicted.getContent(), true);
+        }
+        return view;
+    }
+
+    private boolean isPdfWindowVisible() {
+        if(project.isDisposed()) return false;
+        ToolWindow pdfWin = ToolWindowManager.getInstance(project).getToolWindow(WIN_ID_PDFDEBUG);
+        return pdfWin!=null && pdfWin.isVisible();
+    }
+
+    private static void recordOpen(@NotNull SnapshotMetrics metrics, long openNanos, boolean firstOpen) {
+        metrics.record(SnapshotMetrics.Phase.OPEN, openNanos, -1);
+        long openMs = openNanos / 1000000;
+        if(firstOpen && openMs>PdfDebugWarmup.FIRST_OPEN_TARGET_MS) {
+            LoggerHelper.warn(String.format("Opening a pdfDebug tab took %d ms, the target is %d ms",
+                    openMs, PdfDebugWarmup.FIRST_OPEN_TARGET_MS), PdfDebugProjectComponent.class);
+        }
+    }
+
+    /**
+     * lets the user limit the snapshots to a page range or an object number range,
+     * so that only that part of a huge document is transferred, parsed and rendered.
+     */
+    @NotNull
+    private AnAction createScopeAction() {
+        return new AnAction("Snapshot scope...", "Show only a page range or an object range of the document",
+                AllIcons.General.Filter) {
+            @Override
+            public void actionPerformed(AnActionEvent e) {
+                SnapshotScope current = snapshotScope;
+                String input = Messages.showInputDialog(project,
+                        "Pages (e.g. \"pages 1-50\") or objects (e.g. \"objects 100-400\"), empty for the whole document:",
+                        "Snapshot Scope", null, current==null ? "" : current.toString(), null);
+                if(input==null) return;
+                SnapshotScope scope;
+                try {
+                    scope = SnapshotScope.parse(input);
+                } catch (IllegalArgumentException ex) {
+                    Messages.showErrorDialog(project, ex.getMessage(), "Snapshot Scope");
+                    return;
+                }
+                snapshotScope = scope;
+                // a different scope is a different document, nothing to compare with
+                rupsPool.resetLoaded();
+                scheduleRupsContentUpdate();
+            }
+        };
+    }
+
+    private static <T extends JComponent & Disposable> void addToolTab(@NotNull ToolWindow pdfDebugWin, @NotNull String name, @NotNull T panel) {
+        Content content = ContentFactory.SERVICE.getInstance().createContent(panel, name, false);
+        content.setCloseable(false);
+        content.setDisposer(panel);
+        pdfDebugWin.getContentManager().addContent(content);
+    }
+
+    /**
+     * add <code>dbgBytes</code> to the snapshot history, off the clone's thread since it blocks on disk I/O.
+     */
+    private void storeSnapshot(@NotNull final String session, @NotNull final String name, @NotNull final byte[] dbgBytes) {
+        final String projectKey = project.getLocationHash();
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            @Override
+            public void run() {
+                SnapshotStore.getInstance().add(projectKey, session, name, dbgBytes);
+            }
+        });
+    }
+
+    @NotNull
+    private String sessionLabel(@Nullable XDebugSession sess) {
+        if(sess==null) return "";
+        String label = sessionLabels.get(sess);
+        return label!=null ? label : sess.getSessionName();
+    }
+
+    /**
+     * reopen a snapshot of the history in a tab of its own, without contacting the debuggee.
+     */
+    private void openStoredSnapshot(@NotNull final SnapshotStore.Entry entry) {
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            @Override
+            public void run() {
+                final byte[] bytes;
+                try {
+                    bytes = SnapshotStore.getInstance().read(entry);
+                } catch (IOException ex) {
+                    LoggerHelper.error("Failed to read stored snapshot", ex, PdfDebugProjectComponent.class);
+                    return;
+                }
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        showStoredSnapshot(entry, bytes);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * MUST be called on EDT. The tab is pooled like a live one, so it counts against
+     * {@link PdfDebugSettings#maxDocumentTabs} and the footprint; it is never cloned into.
+     */
+    private void showStoredSnapshot(@NotNull SnapshotStore.Entry entry, @NotNull byte[] bytes) {
+        if(project.isDisposed()) return;
+        ToolWindow pdfWin = getOrRegisterPdfWindow();
+        String title = entry.getDocument() + " @ " + new SimpleDateFormat("HH:mm:ss").format(new Date(entry.getTime()));
+        RupsPool.View view = findView(title);
+        if(view==null) {
+            view = addView(pdfWin, title, true);
+            Rups r = view.getRups();
+            if(r==null) {
+                r = Rups.startNewPlugin(view.getHolder(), pdfWin.getComponent().getSize(), WindowManager.getInstance().getFrame(project));
+                view.setRups(r);
+            }
+            r.loadDocumentFromRawContent(bytes, entry.getDocument(), null, true);
+            // counted in the footprint, never compared with
+            view.setLoaded(null, null, bytes);
+            memoryManager.setViewBytes(rupsPool.getLoadedBytes());
+        }
+        pdfWin.getContentManager().setSelectedContent(view.getContent());
+    }
+
+    /**
+     * show <code>dbgBytes</code> in RUPS, parsing it only when the document actually changed.
+     * The object diff runs only when it may spare RUPS the compare, i.e. when the length is unchanged; the loaded
+     * document is hashed then if it wasn't yet. Otherwise RUPS compares right away, as only its compare yields the
+     * highlights, and nothing is hashed.
+     * Runs on the clone's background thread, only the RUPS update itself goes to EDT.
+     * @param dbgBytes debug PDF of the selected variable
+     * @param view tab of the selected variable
+     * @param clone the clone that produced <code>dbgBytes</code>
+     */
+    private void showDebugBytes(@NotNull byte[] dbgBytes, @NotNull RupsPool.View view, @NotNull CloneRemotePdfDocument clone) {
+        final Rups r = view.getRups();
+        if(r==null) return;
+        final String name = view.getName();
+        SnapshotFingerprint fingerprint = SnapshotFingerprint.of(dbgBytes);
+        if(fingerprint.equals(view.getLoadedFingerprint())) {
+            // same bytes as the document this tab holds, nothing to compare or load
+            updateRupsOnEdt(view, clone, new Runnable() {
+                @Override
+                public void run() {
+                    r.highlightLastSavedChanges();
+                }
+            });
+            return;
+        }
+        final SnapshotMetrics metrics = clone.getMetrics();
+        SnapshotObjects objects = null;
+        int[] changed = null;
+        if(dbgBytes.length==view.getLoadedBytes()) {
+            SnapshotMetrics.Measurement diffTime = metrics.begin(SnapshotMetrics.Phase.DIFF);
+            SnapshotObjects previous = view.getLoadedObjects();
+            if(previous==null) {
+                byte[] loadedPdf = view.getLoadedPdf();
+                previous = loadedPdf==null ? null : SnapshotObjects.of(loadedPdf);
+            }
+            if(previous!=null) {
+                objects = SnapshotObjects.of(dbgBytes);
+                changed = objects!=null ? SnapshotObjects.changed(previous, objects) : null;
+            }
+            diffTime.end();
+            metrics.setChangedObjects(changed==null ? -1 : changed.length);
+            metricsLog.fireChanged();
+        }
+        if(changed!=null && changed.length==0) {
+            // only the trailer differs, RUPS would find nothing to highlight either
+            final SnapshotObjects unchangedObjects = objects;
+            final int[] noChanges = changed;
+            updateRupsOnEdt(view, clone, new Runnable() {
+                @Override
+                public void run() {
+                    r.clearHighlights();
+                    view.setLoaded(fingerprint, unchangedObjects, dbgBytes);
+                    describeChanges(view, noChanges);
+                }
+            });
+            return;
+        }
+        final SnapshotObjects diffedObjects = objects;
+        final int[] diffedChanges = changed;
+        PdfDocument tempDoc = null;
+        try {
+            SnapshotMetrics.Measurement compareTime = metrics.begin(SnapshotMetrics.Phase.COMPARE);
+            tempDoc = new PdfDocument(new PdfReader(new ByteArrayInputStream(dbgBytes)));
+            final boolean isEqual = r.compareWithDocument(tempDoc, true);
+            compareTime.end();
+            metricsLog.fireChanged();
+            updateRupsOnEdt(view, clone, new Runnable() {
+                @Override
+                public void run() {
+                    if(!isEqual) {
+                        // RUPS opens the document asynchronously, the load ends with OPEN_DOCUMENT_POST_EVENT
+                        listenOnetimeForHighlight(r, metrics.begin(SnapshotMetrics.Phase.LOAD));
+                        r.loadDocumentFromRawContent(dbgBytes, name, null, true);
+                    } else {
+                        r.highlightLastSavedChanges();
+                    }
+                    view.setLoaded(fingerprint, diffedObjects, dbgBytes);
+                    memoryManager.setViewBytes(rupsPool.getLoadedBytes());
+                    describeChanges(view, diffedChanges);
+                }
+            });
+        } catch (Exception ex) {
+            LoggerHelper.error("Error while reading pdf file.", ex, PdfDebugProjectComponent.class);
+        } finally {
+            if(tempDoc!=null) tempDoc.close();
+        }
+    }
+
+    /**
+     * list the changed objects in the tooltip of the variable's tab; RUPS highlights them on its own.
+     * MUST be called on EDT.
+     * @param changed changed object numbers, null if unknown
+     */
+    private static void describeChanges(@NotNull RupsPool.View view, @Nullable int[] changed) {
+        Content content = view.getContent();
+        if(changed==null) {
+            content.setDescription(null);
+            return;
+        }
+        StringBuilder sb = new StringBuilder().append(changed.length).append(" objects changed");
+        for(int i=0;i<changed.length && i<MAX_DESCRIBED_CHANGES;i++) {
+            sb.append(i==0 ? ": " : ", ").append(changed[i]).append(" 0 R");
+        }
+        if(changed.length>MAX_DESCRIBED_CHANGES) sb.append(", ...");
+        content.setDescription(sb.toString());
+    }
+
+    /**
+     * run <code>update</code> on EDT unless <code>clone</code> became stale or its tab was closed meanwhile.
+     */
+    private void updateRupsOnEdt(@NotNull RupsPool.View view, @NotNull CloneRemotePdfDocument clone, @NotNull Runnable update) {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                if(clone.isCancelled() || !rupsPool.contains(view)) return;
+                update.run();
+            }
+        });
+    }
+
+    private void listenOnetimeForHighlight(Rups rups, SnapshotMetrics.Measurement loadTime) {
         final Observer openObserver = new Observer() {
             @Override
             public void update(Observable o, Object arg) {
@@ -267,6 +748,8 @@ public class PdfDebugProjectComponent implements ProjectComponent {
                 RupsEvent re = (RupsEvent) arg;
                 // only cares for OPEN_DOCUMENT_POST_EVENT
                 if(re.getType()!=RupsEvent.OPEN_DOCUMENT_POST_EVENT) return;
+                loadTime.end();
+                metricsLog.fireChanged();
                 Observer listener = this;
                 SwingUtilities.invokeLater(new Runnable() {
                     @Override
@@ -281,11 +764,73 @@ public class PdfDebugProjectComponent implements ProjectComponent {
         rups.registerEventObserver(openObserver);
     }
 
+    /**
+     * show what pdfDebug retains in the title of its tool window.
+     */
+    private void showFootprint() {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                if(project.isDisposed()) return;
+                ToolWindow pdfWin = ToolWindowManager.getInstance(project).getToolWindow(WIN_ID_PDFDEBUG);
+                if(pdfWin!=null) {
+                    pdfWin.setTitle(memoryManager.describeFootprint());
+                }
+            }
+        });
+    }
+
+    /**
+     * close every document tab but the one shown, and drop the prebuilt RUPS engine.
+     * A closed variable tab is opened again by selecting the variable, a stored snapshot from the history.
+     */
+    private void releaseIdleViews() {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                spareRups = null;
+                spareHolder = null;
+                if(project.isDisposed()) return;
+                ToolWindow pdfWin = ToolWindowManager.getInstance(project).getToolWindow(WIN_ID_PDFDEBUG);
+                if(pdfWin==null) return;
+                Content shown = pdfWin.isVisible() ? pdfWin.getContentManager().getSelectedContent() : null;
+                for(RupsPool.View view : rupsPool.getViews()) {
+                    if(view.getContent()!=shown) pdfWin.getContentManager().removeContent(view.getContent(), true);
+                }
+            }
+        });
+    }
+
+    /**
+     * close the tabs of the session's variables; the window stays, with the history and the snapshots opened from it.
+     */
+    private void closeLiveTabs() {
+        final List<RupsPool.View> views = rupsPool.clearLive();
+        if(views.isEmpty()) return;
+        memoryManager.setViewBytes(rupsPool.getLoadedBytes());
+
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                if(project.isDisposed()) return;
+                ToolWindow pdfWin = ToolWindowManager.getInstance(project).getToolWindow(WIN_ID_PDFDEBUG);
+                if(pdfWin==null) return;
+                for(RupsPool.View view : views) {
+                    pdfWin.getContentManager().removeContent(view.getContent(), true);
+                }
+            }
+        });
+    }
+
     private void disposePdfWindow() {
-        if(this.rups==null) return;
+        List<RupsPool.View> views = rupsPool.clear();
+        if(views.isEmpty()) return;
 
-        this.rups.clearHighlights();
-        this.rups = null;
+        for(RupsPool.View view : views) {
+            Rups r = view.getRups();
+            if(r!=null) r.clearHighlights();
+        }
+        memoryManager.setViewBytes(0);
 
         SwingUtilities.invokeLater(new Runnable() {
             @Override
@@ -302,6 +847,8 @@ public class PdfDebugProjectComponent implements ProjectComponent {
     @Override
     public void projectClosed() {
         busConn.disconnect();
+        prefetcher.cancel();
+        memoryManager.releaseSnapshots();
         disposePdfWindow();
     }
 }
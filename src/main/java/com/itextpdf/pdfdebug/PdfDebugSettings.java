@@ -0,0 +1,110 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 2007-2018 iText Group NV
+ * Authors: Bruno Lowagie et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+
+package com.itextpdf.pdfdebug;
+
+import com.intellij.openapi.components.PersistentStateComponent;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.components.State;
+import com.intellij.openapi.components.Storage;
+import com.intellij.util.xmlb.XmlSerializerUtil;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Application wide pdfDebug options, edited in {@link PdfDebugConfigurable}.
+ */
+@State(name = "PdfDebugSettings", storages = @Storage("pdfdebug.xml"))
+public class PdfDebugSettings implements PersistentStateComponent<PdfDebugSettings> {
+    /**
+     * build the debug PDF in the target VM instead of deserializing the PdfDocument in the IDE.
+     */
+    public boolean remoteDebugBytes = true;
+    /**
+     * memory the snapshot cache may retain, in megabytes.
+     */
+    public int cacheBudgetMb = 256;
+    /**
+     * transfer only the blocks that changed since the previous snapshot of the same document,
+     * when the measured link makes hashing the blocks cheaper than a full transfer.
+     */
+    public boolean deltaTransfer = true;
+    /**
+     * <code>Deflater</code> level for snapshots above {@link SnapshotCompression#MIN_LENGTH}, 0 to send them as they are.
+     */
+    public int compressionLevel = 1;
+    /**
+     * clone the PdfDocument variables of the current frame into the cache when the session pauses
+     * while the pdfDebug tool window is visible.
+     */
+    public boolean prefetchOnPause = true;
+    /**
+     * write the streams of the debug PDF uncompressed, trading snapshot size for the time spent deflating them.
+     */
+    public boolean fastSnapshot = false;
+    /**
+     * disk space of the snapshot history, in megabytes; 0 stops recording.
+     */
+    public int historyBudgetMb = 512;
+    /**
+     * documents shown side by side, each tab keeps its own RUPS engine; the least recently used tab is closed beyond this.
+     */
+    public int maxDocumentTabs = 4;
+
+    @NotNull
+    static PdfDebugSettings getInstance() {
+        return ServiceManager.getService(PdfDebugSettings.class);
+    }
+
+    @NotNull
+    @Override
+    public PdfDebugSettings getState() {
+        return this;
+    }
+
+    @Override
+    public void loadState(PdfDebugSettings state) {
+        XmlSerializerUtil.copyBean(state, this);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 2007-2018 iText Group NV
+ * Authors: Bruno Lowagie et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+
+package com.itextpdf.pdfdebug;
+
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.WriterProperties;
+import com.itextpdf.rups.model.LoggerHelper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Loads and initializes the iText and RUPS classes the first snapshot needs, so that their cold start
+ * happens on a background thread when a debug session starts instead of on EDT when the first document is selected.
+ */
+final class PdfDebugWarmup {
+    /**
+     * time EDT may spend between the first selection of a document and RUPS being in place.
+     */
+    static final long FIRST_OPEN_TARGET_MS = 100;
+
+    private static final String RUPS_CLASS = "com.itextpdf.rups.Rups";
+    private static final AtomicBoolean done = new AtomicBoolean();
+
+    private PdfDebugWarmup() {
+        // do not create an instance
+    }
+
+    /**
+     * run a one page document through the same steps as a snapshot: serialize, deserialize, getDebugBytes,
+     * object hashing and parsing. Only the first call does anything; it blocks, so don't call it on EDT.
+     */
+    static void loadClasses() {
+        if(!done.compareAndSet(false, true)) return;
+        long start = System.nanoTime();
+        try {
+            Class.forName(RUPS_CLASS, true, PdfDebugWarmup.class.getClassLoader());
+            PdfDocument doc = new PdfDocument(new PdfWriter(new ByteArrayOutputStream(),
+                    new WriterProperties().useDebugMode()));
+            doc.addNewPage();
+            PdfDocument clone = PdfDocumentHelper.deserialize(doc.getSerializedBytes());
+            doc.close();
+            byte[] debugBytes = PdfDocumentHelper.getDebugBytes(clone);
+            if(debugBytes!=null) {
+                SnapshotObjects.of(debugBytes);
+                new PdfDocument(new PdfReader(new ByteArrayInputStream(debugBytes))).close();
+            }
+        } catch (Exception ex) {
+            // nothing is lost, the classes are loaded on first use instead
+            LoggerHelper.warn("Failed to warm up pdfDebug", ex, PdfDebugWarmup.class);
+            return;
+        }
+        LoggerHelper.info(String.format("pdfDebug warmed up in %.0f ms", (System.nanoTime() - start) / 1e6),
+                PdfDebugWarmup.class);
+    }
+}
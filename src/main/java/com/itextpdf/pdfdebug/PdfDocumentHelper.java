@@ -45,15 +45,30 @@
 
 package com.itextpdf.pdfdebug;
 
+import com.itextpdf.kernel.pdf.PdfArray;
+import com.itextpdf.kernel.pdf.PdfDictionary;
 import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfIndirectReference;
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.PdfObject;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.PdfStream;
+import com.itextpdf.kernel.pdf.PdfString;
 import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.WriterProperties;
 import com.itextpdf.rups.model.LoggerHelper;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Deque;
 
 /**
  * a utility class handling serialization of PdfDocument instances.
@@ -63,13 +78,19 @@ class PdfDocumentHelper {
     private static final String DOCUMENT_IS_CLOSED_MESSAGE = "The document was closed.";
 
     private static final String DEBUG_BYTES_METHOD_NAME = "getDebugBytes";
-    private static Method getDebugBytesMethod;
+    /**
+     * <code>CompressionConstants.NO_COMPRESSION</code>
+     */
+    static final int NO_COMPRESSION = 0;
+    private static MethodHandle getDebugBytesHandle;
 
     static {
         try {
-            getDebugBytesMethod = PdfWriter.class.getDeclaredMethod(DEBUG_BYTES_METHOD_NAME);
+            Method getDebugBytesMethod = PdfWriter.class.getDeclaredMethod(DEBUG_BYTES_METHOD_NAME);
             getDebugBytesMethod.setAccessible(true);
+            getDebugBytesHandle = MethodHandles.lookup().unreflect(getDebugBytesMethod);
         } catch (NoSuchMethodException ignored) {
+        } catch (IllegalAccessException ignored) {
         }
     }
 
@@ -78,13 +99,31 @@ class PdfDocumentHelper {
     }
 
     static PdfDocument deserialize(byte[] serializedPdfDocument) throws Exception {
-        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(serializedPdfDocument));
-        PdfDocument newPdfDoc = (PdfDocument) ois.readObject();
-        ois.close();
-        return newPdfDoc;
+        return deserialize(new ByteArrayInputStream(serializedPdfDocument));
+    }
+
+    /**
+     * @param serializedPdfDocument closed afterwards
+     */
+    static PdfDocument deserialize(@NotNull InputStream serializedPdfDocument) throws Exception {
+        ObjectInputStream ois = new ObjectInputStream(serializedPdfDocument);
+        try {
+            return (PdfDocument) ois.readObject();
+        } finally {
+            ois.close();
+        }
     }
 
     static byte[] getDebugBytes(@NotNull PdfDocument pdfDoc) {
+        return getDebugBytes(pdfDoc, false);
+    }
+
+    /**
+     * close <code>pdfDoc</code> and return what its writer produced in debug mode.
+     * Closing can't be avoided, only a closed document has its xref table and trailer written.
+     * @param skipCompression leave the streams written by the close uncompressed, streams already written are kept as they are
+     */
+    static byte[] getDebugBytes(@NotNull PdfDocument pdfDoc, boolean skipCompression) {
         if (pdfDoc.isClosed()) {
             LoggerHelper.warn(DOCUMENT_IS_CLOSED_MESSAGE, PdfDocumentHelper.class);
             return null;
@@ -92,17 +131,140 @@ class PdfDocumentHelper {
         PdfWriter writer = pdfDoc.getWriter();
         writer.setCloseStream(true);
         pdfDoc.setCloseWriter(false);
-        pdfDoc.close();
+        if (skipCompression) {
+            writer.setCompressionLevel(NO_COMPRESSION);
+        }
         byte[] documentCopyBytes = null;
         try {
-            documentCopyBytes = (byte[]) getDebugBytesMethod.invoke(writer);
-        } catch (Exception ignored) {
+            pdfDoc.close();
+            if (getDebugBytesHandle != null) {
+                try {
+                    documentCopyBytes = (byte[]) getDebugBytesHandle.invokeExact(writer);
+                } catch (Error err) {
+                    throw err;
+                } catch (Throwable ex) {
+                    // invokeExact declares Throwable, anything but an Error comes from getDebugBytes itself
+                    LoggerHelper.error("Cannot get the debug bytes of the writer", ex, PdfDocumentHelper.class);
+                }
+            }
+        } finally {
+            // release the clone's buffers even if closing it failed half way
+            try {
+                writer.close();
+            } catch (IOException e) {
+                LoggerHelper.error("Writer closing error", e, PdfDocumentHelper.class);
+            }
         }
+        return documentCopyBytes;
+    }
+
+    /**
+     * copy what <code>scope</code> reaches of <code>pdfDoc</code> into a new document, then discard <code>pdfDoc</code>,
+     * see {@link #discard(PdfDocument)}.
+     * @param skipCompression leave the streams of the new document uncompressed
+     * @return the new document, it has at least one page.
+     */
+    static byte[] getScopedBytes(@NotNull PdfDocument pdfDoc, @NotNull SnapshotScope scope, boolean skipCompression) {
+        try {
+            return copyScope(pdfDoc, scope, skipCompression);
+        } finally {
+            discard(pdfDoc);
+        }
+    }
+
+    /**
+     * release a deserialized clone by closing its writer and reader. Closing the document itself would write
+     * all of it, the very work a scope is there to avoid.
+     */
+    static void discard(@NotNull PdfDocument pdfDoc) {
         try {
-            writer.close();
+            PdfWriter writer = pdfDoc.getWriter();
+            if (writer != null) writer.close();
+            PdfReader reader = pdfDoc.getReader();
+            if (reader != null) reader.close();
         } catch (IOException e) {
-            LoggerHelper.error("Writer closing error", e, PdfDocumentHelper.class);
+            LoggerHelper.warn("Cannot release the document clone", e, PdfDocumentHelper.class);
         }
-        return documentCopyBytes;
+    }
+
+    private static byte[] copyScope(@NotNull PdfDocument pdfDoc, @NotNull SnapshotScope scope, boolean skipCompression) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WriterProperties properties = new WriterProperties();
+        if (skipCompression) {
+            properties.setCompressionLevel(NO_COMPRESSION);
+        }
+        PdfDocument subset = new PdfDocument(new PdfWriter(out, properties));
+        if (scope.getKind() == SnapshotScope.Kind.PAGES) {
+            int from = Math.max(1, scope.getFrom());
+            int to = Math.min(scope.getTo(), pdfDoc.getNumberOfPages());
+            if (from <= to) {
+                pdfDoc.copyPagesTo(from, to, subset);
+            }
+        } else {
+            PdfArray objects = new PdfArray();
+            Deque<PdfObject[]> pending = new ArrayDeque<PdfObject[]>();
+            int last = Math.min(scope.getTo(), pdfDoc.getNumberOfPdfObjects() - 1);
+            for (int i = scope.getFrom(); i <= last; i++) {
+                PdfObject obj = pdfDoc.getPdfObject(i);
+                if (obj != null && !obj.isFlushed()) {
+                    objects.add(copyObject(obj, pending).makeIndirect(subset));
+                }
+            }
+            // containers are filled breadth first, the same way the code fragment does it without recursion
+            while (!pending.isEmpty()) {
+                PdfObject[] pair = pending.poll();
+                if (pair[0].isArray()) {
+                    PdfArray from = (PdfArray) pair[0];
+                    for (int i = 0; i < from.size(); i++) {
+                        ((PdfArray) pair[1]).add(copyValue(from.get(i, false), pending));
+                    }
+                } else {
+                    PdfDictionary from = (PdfDictionary) pair[0];
+                    for (PdfName key : from.keySet()) {
+                        // the writer sets the length of the copied stream
+                        if (pair[0].isStream() && PdfName.Length.equals(key)) continue;
+                        ((PdfDictionary) pair[1]).put(key, copyValue(from.get(key, false), pending));
+                    }
+                }
+            }
+            subset.getCatalog().put(new PdfName(SnapshotScope.OBJECTS_KEY), objects);
+        }
+        if (subset.getNumberOfPages() == 0) {
+            // a document without pages can't be closed
+            subset.addNewPage();
+        }
+        subset.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * copy a value held by a copied object: a reference, or an indirect object held directly, becomes a string
+     * like <code>(12 0 R)</code>, anything else is copied with {@link #copyObject(PdfObject, Deque)}.
+     */
+    private static PdfObject copyValue(PdfObject value, Deque<PdfObject[]> pending) {
+        PdfIndirectReference ref = value.isIndirectReference() ? (PdfIndirectReference) value : value.getIndirectReference();
+        if (ref != null) {
+            return new PdfString(ref.getObjNumber() + " " + ref.getGenNumber() + " R");
+        }
+        return copyObject(value, pending);
+    }
+
+    /**
+     * copy <code>obj</code> without following its references. Dictionaries, arrays and streams are created empty
+     * and queued with their source in <code>pending</code>. Stream data is copied as it is encoded, along with its filters.
+     */
+    private static PdfObject copyObject(PdfObject obj, Deque<PdfObject[]> pending) {
+        PdfObject copy;
+        if (obj.isStream()) {
+            copy = new PdfStream(((PdfStream) obj).getBytes(false)).setCompressionLevel(NO_COMPRESSION);
+        } else if (obj.isDictionary()) {
+            copy = new PdfDictionary();
+        } else if (obj.isArray()) {
+            copy = new PdfArray();
+        } else {
+            return obj.clone();
+        }
+        pending.add(new PdfObject[] {obj, copy});
+        return copy;
     }
 }
@@ -0,0 +1,250 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 2007-2018 iText Group NV
+ * Authors: Bruno Lowagie et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+
+package com.itextpdf.pdfdebug;
+
+import com.intellij.debugger.engine.JavaValue;
+import com.intellij.debugger.ui.impl.watch.ValueDescriptorImpl;
+import com.intellij.ui.SimpleTextAttributes;
+import com.intellij.xdebugger.XDebugSession;
+import com.intellij.xdebugger.frame.XCompositeNode;
+import com.intellij.xdebugger.frame.XDebuggerTreeNodeHyperlink;
+import com.intellij.xdebugger.frame.XStackFrame;
+import com.intellij.xdebugger.frame.XValueChildrenList;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.Value;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Clones the PdfDocument variables of the current frame into the snapshot cache as soon as the session pauses,
+ * so that selecting one of them is served without waiting for the transfer.
+ * Documents are prefetched one after the other, and everything is dropped when the session resumes.
+ * Selecting a document being prefetched joins that prefetch instead of cloning the document a second time.
+ */
+final class PdfDocumentPrefetcher {
+    private static final int MAX_PREFETCHED_DOCUMENTS = 4;
+
+    private final SnapshotCache cache;
+    private final SnapshotMetricsLog metricsLog;
+    private final Runnable onSnapshot;
+    private Pass currentPass;
+
+    /**
+     * @param cache receives the prefetched snapshots
+     * @param metricsLog receives the measurements of the prefetch clones
+     * @param onSnapshot called on a background thread after a snapshot was added to the cache
+     */
+    PdfDocumentPrefetcher(@NotNull SnapshotCache cache, @NotNull SnapshotMetricsLog metricsLog, @NotNull Runnable onSnapshot) {
+        this.cache = cache;
+        this.metricsLog = metricsLog;
+        this.onSnapshot = onSnapshot;
+    }
+
+    /**
+     * start prefetching the variables of the current frame, dropping what is left from the previous pause.
+     * @param scope the scope the tool window shows, null for whole documents
+     */
+    synchronized void start(@NotNull XDebugSession session, @Nullable SnapshotScope scope) {
+        cancel();
+        if(!PdfDebugSettings.getInstance().prefetchOnPause || PdfDebugSettings.getInstance().cacheBudgetMb<=0) return;
+        XStackFrame frame = session.getCurrentStackFrame();
+        if(frame==null) return;
+        currentPass = new Pass(session, scope);
+        frame.computeChildren(currentPass);
+    }
+
+    synchronized void cancel() {
+        if(currentPass!=null) {
+            currentPass.cancel();
+            currentPass = null;
+        }
+    }
+
+    /**
+     * let a clone of <code>doc</code> requested by the user wait for the prefetch of the same document,
+     * whose snapshot it then finds in the cache. A prefetch of <code>doc</code> still pending is dropped instead.
+     * @param then called on any thread once the prefetch of <code>doc</code> is over, successful or not
+     * @return false if <code>doc</code> isn't being prefetched, <code>then</code> won't be called.
+     */
+    synchronized boolean join(@Nullable Value doc, @NotNull Runnable then) {
+        return doc instanceof ObjectReference && currentPass!=null && currentPass.join((ObjectReference) doc, then);
+    }
+
+    /**
+     * one pause worth of prefetching. Collects the frame's children and clones the matching ones.
+     */
+    private final class Pass implements XCompositeNode {
+        private final XDebugSession session;
+        private final SnapshotScope scope;
+        private final Deque<JavaValue> pending = new ArrayDeque<JavaValue>();
+        private int found;
+        private volatile boolean cancelled;
+        private CloneRemotePdfDocument running;
+        private Value runningDoc;
+        private final List<Runnable> joined = new ArrayList<Runnable>();
+
+        Pass(@NotNull XDebugSession session, @Nullable SnapshotScope scope) {
+            this.session = session;
+            this.scope = scope;
+        }
+
+        @Override
+        public void addChildren(@NotNull XValueChildrenList children, boolean last) {
+            // called on the debugger manager thread, the right place to compute values
+            synchronized (this) {
+                for(int i=0;i<children.size() && found<MAX_PREFETCHED_DOCUMENTS;i++) {
+                    JavaValue jv = PdfDebugProjectComponent.extractPdfDocument(children.getValue(i));
+                    if(jv==null) continue;
+                    ValueDescriptorImpl descriptor = jv.getDescriptor();
+                    if(descriptor.getValue()==null) {
+                        descriptor.setContext(jv.getEvaluationContext());
+                    }
+                    pending.add(jv);
+                    found++;
+                }
+            }
+            if(last) next();
+        }
+
+        private void next() {
+            CloneRemotePdfDocument clone;
+            synchronized (this) {
+                JavaValue jv = pending.poll();
+                if(cancelled || jv==null) {
+                    running = null;
+                    runningDoc = null;
+                    return;
+                }
+                clone = new CloneRemotePdfDocument(jv, session, cache) {
+                    @Override
+                    void onCloneSuccess(byte[] debugBytes) {
+                        metricsLog.add(getMetrics());
+                        if(debugBytes!=null) onSnapshot.run();
+                        runJoined();
+                        next();
+                    }
+
+                    @Override
+                    void onCloneError(Throwable t) {
+                        // the user will see the error if they select the variable
+                        metricsLog.add(getMetrics());
+                        runJoined();
+                        next();
+                    }
+                };
+                clone.setPrefetch(true);
+                clone.setScope(scope);
+                running = clone;
+                runningDoc = jv.getDescriptor().getValue();
+            }
+            clone.execute();
+        }
+
+        synchronized boolean join(@NotNull ObjectReference doc, @NotNull Runnable then) {
+            if(cancelled) return false;
+            Iterator<JavaValue> it = pending.iterator();
+            while(it.hasNext()) {
+                // the user's clone fetches it right away
+                if(doc.equals(it.next().getDescriptor().getValue())) it.remove();
+            }
+            if(running==null || !doc.equals(runningDoc)) return false;
+            joined.add(then);
+            return true;
+        }
+
+        private void runJoined() {
+            List<Runnable> waiting;
+            synchronized (this) {
+                waiting = new ArrayList<Runnable>(joined);
+                joined.clear();
+            }
+            for(Runnable r : waiting) r.run();
+        }
+
+        void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                pending.clear();
+                if(running!=null) running.cancel();
+            }
+            // a cancelled clone reports nothing, the joined clones go on by themselves
+            runJoined();
+        }
+
+        @Override
+        public boolean isObsolete() {
+            return cancelled;
+        }
+
+        @Override
+        public void tooManyChildren(int remaining) {
+        }
+
+        @Override
+        public void setAlreadySorted(boolean alreadySorted) {
+        }
+
+        @Override
+        public void setErrorMessage(@NotNull String errorMessage) {
+        }
+
+        @Override
+        public void setErrorMessage(@NotNull String errorMessage, @Nullable XDebuggerTreeNodeHyperlink link) {
+        }
+
+        @Override
+        public void setMessage(@NotNull String message, @Nullable Icon icon, @NotNull SimpleTextAttributes attributes,
+                               @Nullable XDebuggerTreeNodeHyperlink link) {
+        }
+    }
+}
@@ -0,0 +1,453 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 2007-2018 iText Group NV
+ * Authors: Bruno Lowagie et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+
+package com.itextpdf.pdfdebug;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.sun.jdi.ArrayReference;
+import com.sun.jdi.ByteValue;
+import com.sun.jdi.Value;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies a <code>byte[]</code> living in the debug target VM into a local buffer.
+ * <p>
+ * The remote array is requested in ranges. Unless a fixed chunk size is given, the reader measures the round trip
+ * time and the throughput of the link while it runs: chunks are sized to take about {@link #TARGET_CHUNK_MILLIS},
+ * and on a slow round trip several of them are requested at once to keep the link busy. When a range takes
+ * longer than {@link #CHUNK_TIMEOUT_MILLIS}, nothing more is requested until it arrives: a JDWP request can't be
+ * aborted, so asking again would only queue behind the stalled one. The ranges after it are requested in smaller
+ * pieces, one at a time. The adapted sizes carry over to the next read of the same reader, and the throughput
+ * of a JDI array is recorded in its {@link SnapshotLink}.
+ * <p>
+ * A read into a local copy of the whole array, {@link #read(ProgressIndicator)} or {@link #readRanges(List, byte[], ProgressIndicator)},
+ * gives up with a {@link Partial} that {@link #resume(Partial, ProgressIndicator)} completes later.
+ */
+class RemoteByteArrayReader {
+    static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    static final int MIN_CHUNK_SIZE = 4 * 1024;
+    static final int MAX_CHUNK_SIZE = 512 * 1024;
+    static final int MAX_IN_FLIGHT = 4;
+    /**
+     * every requested byte is a JDI value mirror until its chunk is copied, this bounds them.
+     */
+    private static final int MAX_BYTES_IN_FLIGHT = 1024 * 1024;
+    static final long TARGET_CHUNK_MILLIS = 100;
+    static final long CHUNK_TIMEOUT_MILLIS = 10000;
+    /**
+     * timeouts in a row, without any chunk arriving in between, that give the transfer up.
+     */
+    private static final int MAX_TIMEOUTS = 3;
+    private static final long CANCEL_CHECK_MILLIS = 100;
+
+    private static final ExecutorService FETCHERS = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NotNull Runnable r) {
+            Thread thread = new Thread(r, "pdfDebug transfer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * thrown when the target VM didn't answer {@link #MAX_TIMEOUTS} times in a row.
+     */
+    static final class TransferTimeoutException extends RuntimeException {
+        private final Partial partial;
+
+        TransferTimeoutException(String message, @Nullable Partial partial) {
+            super(message);
+            this.partial = partial;
+        }
+
+        /**
+         * @return what arrived before the transfer was given up, null if it wasn't read into a copy of the whole array.
+         */
+        @Nullable
+        Partial getPartial() {
+            return partial;
+        }
+    }
+
+    /**
+     * local copy of a remote array with the ranges still missing, as left by a transfer that timed out.
+     */
+    static final class Partial {
+        private final byte[] copy;
+        private final List<int[]> missing;
+
+        private Partial(@NotNull byte[] copy, @NotNull List<int[]> missing) {
+            this.copy = copy;
+            this.missing = missing;
+        }
+
+        int length() {
+            return copy.length;
+        }
+    }
+
+    private final RemoteByteSource source;
+    private final SnapshotLink link;
+    private final boolean adaptive;
+    private volatile int chunkSize;
+    private volatile int inFlight = 1;
+    private volatile long rttNanos = -1;
+    private volatile double bytesPerSecond = -1;
+    private volatile long bytesRead;
+
+    RemoteByteArrayReader(@NotNull ArrayReference array) {
+        this(new ArrayReferenceSource(array), SnapshotLink.of(array.virtualMachine()), DEFAULT_CHUNK_SIZE, true);
+    }
+
+    /**
+     * @param chunkSize fixed size of every request, one request at a time
+     */
+    RemoteByteArrayReader(@NotNull ArrayReference array, int chunkSize) {
+        this(new ArrayReferenceSource(array), null, chunkSize, false);
+    }
+
+    RemoteByteArrayReader(@NotNull RemoteByteSource source) {
+        this(source, null, DEFAULT_CHUNK_SIZE, true);
+    }
+
+    private RemoteByteArrayReader(@NotNull RemoteByteSource source, @Nullable SnapshotLink link, int chunkSize, boolean adaptive) {
+        if(chunkSize<=0) {
+            throw new IllegalArgumentException("chunkSize must be positive: "+chunkSize);
+        }
+        this.source = source;
+        this.link = link;
+        this.chunkSize = chunkSize;
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * read the whole remote array.
+     * @param indicator receives the progress; cancelling it aborts the transfer
+     *                  with <code>ProcessCanceledException</code> between two chunks.
+     * @return local copy of the remote array.
+     */
+    @NotNull
+    byte[] read(@NotNull ProgressIndicator indicator) {
+        int length = source.length();
+        byte[] buffer = new byte[length];
+        readRanges(Collections.singletonList(new int[]{0, length}), buffer, indicator);
+        return buffer;
+    }
+
+    /**
+     * copy the given ranges of the remote array into <code>copy</code>, all of them through the same pipeline.
+     * @param ranges <code>{index, count}</code> pairs
+     * @param copy local copy of the whole array, each range goes to its own index
+     * @param indicator receives the progress; cancelling it aborts the transfer
+     *                  with <code>ProcessCanceledException</code> between two chunks.
+     */
+    void readRanges(@NotNull List<int[]> ranges, @NotNull byte[] copy, @NotNull ProgressIndicator indicator) {
+        Deque<int[]> pending = new ArrayDeque<int[]>();
+        for(int[] range : ranges) {
+            if(range[1]>0) pending.add(new int[]{range[0], range[1], range[0]});
+        }
+        transfer(pending, copy, indicator, true, true);
+    }
+
+    /**
+     * complete a read that timed out, if it was a read of this very array.
+     * @return the whole array, or null if <code>partial</code> doesn't fit it.
+     */
+    @Nullable
+    byte[] resume(@NotNull Partial partial, @NotNull ProgressIndicator indicator) {
+        if(partial.length()!=source.length()) return null;
+        readRanges(partial.missing, partial.copy, indicator);
+        return partial.copy;
+    }
+
+    int length() {
+        return source.length();
+    }
+
+    /**
+     * @return number of bytes requested over JDI so far.
+     */
+    long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return the link as measured so far, e.g. for a progress text.
+     */
+    @NotNull
+    String describeLink() {
+        return String.format("%.1f MB/s, round trip %.0f ms, %d KB x %d", Math.max(0, bytesPerSecond) / (1024 * 1024),
+                Math.max(0, rttNanos) / 1e6, chunkSize / 1024, inFlight);
+    }
+
+    /**
+     * copy <code>count</code> elements starting at <code>index</code> into <code>dest</code>, chunk by chunk.
+     * @param indicator cancelling it aborts the copy with <code>ProcessCanceledException</code> between two chunks;
+     *                  the progress is left to the caller
+     */
+    void readRange(int index, int count, @NotNull byte[] dest, int destOffset, @NotNull ProgressIndicator indicator) {
+        Deque<int[]> pending = new ArrayDeque<int[]>();
+        pending.add(new int[]{index, count, destOffset});
+        transfer(pending, dest, indicator, false, false);
+    }
+
+    /**
+     * @param pending <code>{index, count, destOffset}</code> of every range, consumed
+     * @param reportProgress set the fraction and the link description on <code>indicator</code>
+     * @param wholeCopy <code>dest</code> is a local copy of the whole array, a timeout leaves a {@link Partial}
+     */
+    private void transfer(@NotNull Deque<int[]> pending, @NotNull byte[] dest, @NotNull ProgressIndicator indicator,
+                          boolean reportProgress, boolean wholeCopy) {
+        long count = 0;
+        for(int[] range : pending) {
+            count += range[1];
+        }
+        if(!adaptive) {
+            long done = 0;
+            for(int[] range : pending) {
+                for(int offset=0;offset<range[1];offset+=chunkSize) {
+                    indicator.checkCanceled();
+                    int n = Math.min(chunkSize, range[1] - offset);
+                    readChunk(range[0] + offset, n, dest, range[2] + offset);
+                    done += n;
+                    if(reportProgress) indicator.setFraction((double) done / count);
+                }
+            }
+            return;
+        }
+        Deque<Chunk> running = new ArrayDeque<Chunk>();
+        CompletionService<Chunk> completion = new ExecutorCompletionService<Chunk>(FETCHERS);
+        long measuredSince = System.nanoTime();
+        long measuredBytes = 0;
+        long done = 0;
+        int timeouts = 0;
+        long lastTimeout = 0;
+        try {
+            while(!pending.isEmpty() || !running.isEmpty()) {
+                while(!pending.isEmpty() && running.size()<inFlight) {
+                    int[] range = pending.poll();
+                    // the first request is a small probe, its answer time is close to the bare round trip
+                    int n = Math.min(range[1], rttNanos<0 ? MIN_CHUNK_SIZE : chunkSize);
+                    if(n<range[1]) pending.addFirst(new int[]{range[0] + n, range[1] - n, range[2] + n});
+                    Chunk chunk = new Chunk(range[0], n, dest, range[2]);
+                    chunk.future = completion.submit(chunk);
+                    running.add(chunk);
+                }
+                // the clock restarts at each timeout, a stalled chunk is waited for again rather than requested again
+                long waitingSince = Math.max(running.peek().submitted, lastTimeout);
+                Chunk finished = awaitChunk(completion, waitingSince, indicator);
+                if(finished==null) {
+                    if(++timeouts>=MAX_TIMEOUTS) {
+                        throw new TransferTimeoutException(String.format("No answer from the target VM for %d ms, %d of %d bytes transferred",
+                                MAX_TIMEOUTS * CHUNK_TIMEOUT_MILLIS, done, count), wholeCopy ? partial(dest, pending, running) : null);
+                    }
+                    // the outstanding requests still hold the connection, the next ones go smaller and one at a time
+                    lastTimeout = System.nanoTime();
+                    chunkSize = Math.max(MIN_CHUNK_SIZE, chunkSize / 2);
+                    inFlight = 1;
+                    // the stall says nothing about the throughput once the link is back
+                    measuredSince = lastTimeout;
+                    measuredBytes = 0;
+                    continue;
+                }
+                running.remove(finished);
+                timeouts = 0;
+                done += finished.count;
+                measuredBytes += finished.count;
+                bytesRead += finished.count;
+                adapt(finished, measuredBytes, System.nanoTime() - measuredSince);
+                if(reportProgress) {
+                    indicator.setFraction((double) done / count);
+                    indicator.setText2(describeLink());
+                }
+            }
+            // a short transfer measures little more than the round trip
+            if(link!=null && bytesPerSecond>0 && count>=MAX_BYTES_IN_FLIGHT) link.recordThroughput(bytesPerSecond);
+        } finally {
+            // cancelled or given up: a chunk blocked on its reply ends with the connection, the others are dropped
+            for(Chunk c : running) {
+                c.future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * @return <code>copy</code> with the ranges not yet arrived: the pending ones and those still requested.
+     */
+    @NotNull
+    private static Partial partial(@NotNull byte[] copy, @NotNull Deque<int[]> pending, @NotNull Deque<Chunk> running) {
+        List<int[]> missing = new ArrayList<int[]>();
+        for(Chunk c : running) {
+            missing.add(new int[]{c.index, c.count});
+        }
+        for(int[] range : pending) {
+            missing.add(new int[]{range[0], range[1]});
+        }
+        return new Partial(copy, missing);
+    }
+
+    /**
+     * @param waitingSince start of the wait, in <code>System.nanoTime()</code>
+     * @return the next chunk to complete, or null if none did within {@link #CHUNK_TIMEOUT_MILLIS} of <code>waitingSince</code>.
+     */
+    @Nullable
+    private static Chunk awaitChunk(@NotNull CompletionService<Chunk> completion, long waitingSince,
+                                    @NotNull ProgressIndicator indicator) {
+        while(true) {
+            indicator.checkCanceled();
+            Future<Chunk> f;
+            try {
+                f = completion.poll(CANCEL_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Transfer interrupted");
+            }
+            if(f!=null) {
+                try {
+                    return f.get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException("Transfer interrupted");
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+                    if(cause instanceof Error) throw (Error) cause;
+                    throw new IllegalStateException(cause);
+                }
+            }
+            if(System.nanoTime() - waitingSince>TimeUnit.MILLISECONDS.toNanos(CHUNK_TIMEOUT_MILLIS)) return null;
+        }
+    }
+
+    /**
+     * size the next chunks from the measured link: each should take about {@link #TARGET_CHUNK_MILLIS},
+     * and enough of them should be under way to cover the round trip.
+     */
+    private void adapt(@NotNull Chunk finished, long measuredBytes, long elapsedNanos) {
+        // the quickest answer is the closest to a bare round trip
+        if(rttNanos<0 || finished.nanos<rttNanos) rttNanos = finished.nanos;
+        bytesPerSecond = measuredBytes * 1e9 / Math.max(1, elapsedNanos);
+        long target = (long) (bytesPerSecond * TARGET_CHUNK_MILLIS / 1000);
+        int size = (int) Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, target));
+        chunkSize = size;
+        // bytes the link carries during one round trip, beyond what a single chunk keeps busy
+        double inRoundTrip = bytesPerSecond * rttNanos / 1e9;
+        int n = 1 + (int) Math.ceil(inRoundTrip / size);
+        inFlight = Math.max(1, Math.min(Math.min(MAX_IN_FLIGHT, MAX_BYTES_IN_FLIGHT / size), n));
+    }
+
+    private void readChunk(int index, int count, byte[] dest, int destOffset) {
+        source.read(index, count, dest, destOffset);
+        bytesRead += count;
+    }
+
+    /**
+     * one range requested from the source.
+     */
+    private final class Chunk implements java.util.concurrent.Callable<Chunk> {
+        final int index;
+        final int count;
+        final byte[] dest;
+        final int destOffset;
+        final long submitted = System.nanoTime();
+        volatile long nanos;
+        Future<Chunk> future;
+
+        Chunk(int index, int count, byte[] dest, int destOffset) {
+            this.index = index;
+            this.count = count;
+            this.dest = dest;
+            this.destOffset = destOffset;
+        }
+
+        @Override
+        public Chunk call() {
+            long start = System.nanoTime();
+            source.read(index, count, dest, destOffset);
+            nanos = System.nanoTime() - start;
+            return this;
+        }
+    }
+
+    /**
+     * the remote array as seen through JDI, only one chunk of value mirrors per request is alive at any time.
+     */
+    private static final class ArrayReferenceSource implements RemoteByteSource {
+        private final ArrayReference array;
+
+        ArrayReferenceSource(@NotNull ArrayReference array) {
+            this.array = array;
+        }
+
+        @Override
+        public int length() {
+            return array.length();
+        }
+
+        @Override
+        public void read(int index, int count, @NotNull byte[] dest, int destOffset) {
+            List<Value> values = array.getValues(index, count);
+            for(int i=0;i<count;i++) {
+                dest[destOffset+i] = ((ByteValue) values.get(i)).value();
+            }
+        }
+    }
+}
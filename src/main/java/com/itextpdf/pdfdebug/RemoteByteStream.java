@@ -0,0 +1,217 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 2007-2018 iText Group NV
+ * Authors: Bruno Lowagie et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+
+package com.itextpdf.pdfdebug;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.ProgressIndicator;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The remote array as an <code>InputStream</code>, so that parsing starts while the rest is still transferred.
+ * A pooled thread copies the array window by window into a bounded queue, the reader of the stream takes them
+ * from there; at most {@link #MAX_WINDOWS} windows are buffered, the whole array never is.
+ * Only the serialized document is streamed: a debug PDF built in the target VM is needed whole, so its
+ * time to first view doesn't change.
+ */
+final class RemoteByteStream extends InputStream {
+    static final int WINDOW_SIZE = 1024 * 1024;
+    static final int MAX_WINDOWS = 4;
+    private static final long POLL_MILLIS = 100;
+    private static final byte[] END = new byte[0];
+
+    private final RemoteByteArrayReader remote;
+    private final ProgressIndicator indicator;
+    private final BlockingQueue<byte[]> windows = new ArrayBlockingQueue<byte[]>(MAX_WINDOWS + 1);
+    private final long startNanos = System.nanoTime();
+    private volatile long transferNanos = -1;
+    private final CountDownLatch producerDone = new CountDownLatch(1);
+    private volatile Throwable failure;
+    private volatile boolean failureReported;
+    private volatile boolean closed;
+    private byte[] current;
+    private int position;
+
+    /**
+     * start transferring <code>remote</code>.
+     * @param indicator receives the progress of the transfer; cancelling it aborts both sides
+     */
+    RemoteByteStream(@NotNull RemoteByteArrayReader remote, @NotNull ProgressIndicator indicator) {
+        this.remote = remote;
+        this.indicator = indicator;
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            @Override
+            public void run() {
+                transfer();
+            }
+        });
+    }
+
+    private void transfer() {
+        try {
+            produce();
+        } finally {
+            producerDone.countDown();
+        }
+    }
+
+    private void produce() {
+        try {
+            int length = remote.length();
+            int offset = 0;
+            while(offset<length) {
+                if(closed) return;
+                indicator.checkCanceled();
+                int n = Math.min(WINDOW_SIZE, length - offset);
+                byte[] window = new byte[n];
+                remote.readRange(offset, n, window, 0, indicator);
+                offset += n;
+                if(!put(window)) return;
+                indicator.setFraction((double) offset / length);
+            }
+            transferNanos = System.nanoTime() - startNanos;
+        } catch (Throwable t) {
+            failure = t;
+        }
+        put(END);
+    }
+
+    /**
+     * @return false if the stream was closed meanwhile.
+     */
+    private boolean put(byte[] window) {
+        try {
+            while(!windows.offer(window, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if(closed) return false;
+            }
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @return time from the start to the last byte transferred, or -1 if the transfer isn't over.
+     */
+    long getTransferNanos() {
+        return transferNanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if(!nextWindow()) return -1;
+        return current[position++] & 0xff;
+    }
+
+    @Override
+    public int read(@NotNull byte[] b, int off, int len) throws IOException {
+        if(len==0) return 0;
+        if(!nextWindow()) return -1;
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current==null || current==END ? 0 : current.length - position;
+    }
+
+    /**
+     * @return false at the end of the array.
+     */
+    private boolean nextWindow() throws IOException {
+        while(current==null || (current!=END && position==current.length)) {
+            try {
+                indicator.checkCanceled();
+                current = windows.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Transfer interrupted", ex);
+            }
+            position = 0;
+        }
+        if(current!=END) return true;
+        rethrowFailure();
+        return false;
+    }
+
+    private void rethrowFailure() throws IOException {
+        Throwable t = failure;
+        if(t==null || failureReported) return;
+        failureReported = true;
+        if(t instanceof RuntimeException) throw (RuntimeException) t;
+        if(t instanceof Error) throw (Error) t;
+        throw new IOException(t);
+    }
+
+    /**
+     * stop the transfer and wait until the producer thread is done with the remote array,
+     * so the caller may release it. A failure of the transfer not yet thrown by a read is thrown here.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        windows.clear();
+        try {
+            // the producer stops after its current window, which ends at the latest when the reader times out
+            producerDone.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the transfer to stop", ex);
+        }
+        windows.clear();
+        rethrowFailure();
+    }
+}
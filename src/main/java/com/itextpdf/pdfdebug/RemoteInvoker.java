@@ -0,0 +1,270 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 2007-2018 iText Group NV
+ * Authors: Bruno Lowagie et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+
+package com.itextpdf.pdfdebug;
+
+import com.intellij.debugger.engine.DebugProcessImpl;
+import com.intellij.debugger.engine.evaluation.EvaluateException;
+import com.intellij.debugger.engine.evaluation.EvaluationContextImpl;
+import com.sun.jdi.ClassObjectReference;
+import com.sun.jdi.ClassType;
+import com.sun.jdi.Method;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.ReferenceType;
+import com.sun.jdi.ThreadReference;
+import com.sun.jdi.Value;
+import com.sun.jdi.VirtualMachine;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Calls methods in the debug target VM directly through JDI, without compiling a code fragment.
+ * Method lookups are cached per target VM. Objects created or returned here are kept from garbage collection
+ * until {@link #release()}.
+ * Must be used on the debugger manager thread, or, when created for a suspended thread without the IDE,
+ * on the thread handling that thread's JDI events.
+ */
+final class RemoteInvoker {
+    private static final Map<VirtualMachine, Map<ReferenceType, Map<String, Method>>> METHODS =
+            Collections.synchronizedMap(new WeakHashMap<VirtualMachine, Map<ReferenceType, Map<String, Method>>>());
+
+    private final EvaluationContextImpl context;
+    private final DebugProcessImpl process;
+    private final ThreadReference thread;
+    private final VirtualMachine vm;
+    private final SnapshotLink link;
+    private final List<ObjectReference> kept = new ArrayList<ObjectReference>();
+
+    RemoteInvoker(@NotNull EvaluationContextImpl context, @NotNull VirtualMachine vm) {
+        this.context = context;
+        this.process = context.getDebugProcess();
+        this.thread = null;
+        this.vm = vm;
+        this.link = SnapshotLink.of(vm);
+    }
+
+    /**
+     * invoke plain JDI methods on <code>thread</code>, suspended by an event, e.g. in a headless harness.
+     */
+    RemoteInvoker(@NotNull ThreadReference thread) {
+        this.context = null;
+        this.process = null;
+        this.thread = thread;
+        this.vm = thread.virtualMachine();
+        this.link = SnapshotLink.of(vm);
+    }
+
+    /**
+     * @param signature JNI signature, only needed to tell overloads with the same number of arguments apart
+     */
+    @Nullable
+    Value invoke(@NotNull ObjectReference obj, @NotNull String name, @Nullable String signature, Value... args) throws EvaluateException {
+        Method method = findMethod(obj.referenceType(), name, signature, args.length);
+        long start = System.nanoTime();
+        Value result;
+        if(process!=null) {
+            result = process.invokeMethod(context, obj, method, Arrays.asList(args));
+        } else {
+            try {
+                result = obj.invokeMethod(thread, method, Arrays.asList(args), ObjectReference.INVOKE_SINGLE_THREADED);
+            } catch (Exception ex) {
+                throw invocationFailed(method, ex);
+            }
+        }
+        link.recordInvoke(System.nanoTime() - start);
+        return keep(result);
+    }
+
+    @Nullable
+    Value invokeStatic(@NotNull String className, @NotNull String name, @Nullable String signature, Value... args) throws EvaluateException {
+        ClassType type = findClass(className);
+        Method method = findMethod(type, name, signature, args.length);
+        if(process!=null) return keep(process.invokeMethod(context, type, method, Arrays.asList(args)));
+        try {
+            return keep(type.invokeMethod(thread, method, Arrays.asList(args), ObjectReference.INVOKE_SINGLE_THREADED));
+        } catch (Exception ex) {
+            throw invocationFailed(method, ex);
+        }
+    }
+
+    @NotNull
+    ObjectReference newInstance(@NotNull String className, @Nullable String signature, Value... args) throws EvaluateException {
+        ClassType type = findClass(className);
+        Method constructor = findMethod(type, "<init>", signature, args.length);
+        if(process!=null) return (ObjectReference) keep(process.newInstance(context, type, constructor, Arrays.asList(args)));
+        try {
+            return (ObjectReference) keep(type.newInstance(thread, constructor, Arrays.asList(args), ObjectReference.INVOKE_SINGLE_THREADED));
+        } catch (Exception ex) {
+            throw invocationFailed(constructor, ex);
+        }
+    }
+
+    @NotNull
+    VirtualMachine getVirtualMachine() {
+        return vm;
+    }
+
+    @NotNull
+    Value mirrorOf(@NotNull String s) {
+        return keep(vm.mirrorOf(s));
+    }
+
+    @NotNull
+    Value mirrorOf(int i) {
+        return vm.mirrorOf(i);
+    }
+
+    @NotNull
+    Value mirrorOf(boolean b) {
+        return vm.mirrorOf(b);
+    }
+
+    /**
+     * let the target VM collect the objects kept so far.
+     */
+    void release() {
+        List<ObjectReference> refs;
+        synchronized (kept) {
+            refs = new ArrayList<ObjectReference>(kept);
+            kept.clear();
+        }
+        for(ObjectReference ref : refs) {
+            try {
+                ref.enableCollection();
+            } catch (RuntimeException ignored) {
+                // collected anyway or the target VM is gone
+            }
+        }
+    }
+
+    /**
+     * leave <code>ref</code> out of {@link #release()}, the caller keeps it from garbage collection from now on.
+     */
+    void forget(@NotNull ObjectReference ref) {
+        synchronized (kept) {
+            kept.removeAll(Collections.singleton(ref));
+        }
+    }
+
+    private Value keep(@Nullable Value value) {
+        if(value instanceof ObjectReference) {
+            ObjectReference ref = (ObjectReference) value;
+            ref.disableCollection();
+            synchronized (kept) {
+                kept.add(ref);
+            }
+        }
+        return value;
+    }
+
+    @NotNull
+    private static EvaluateException invocationFailed(@NotNull Method method, @NotNull Exception ex) {
+        return new EvaluateException("Invoking " + method.declaringType().name() + "." + method.name() + " failed: " + ex, ex);
+    }
+
+    @NotNull
+    private ClassType findClass(@NotNull String className) throws EvaluateException {
+        ReferenceType type = process!=null ? process.findClass(context, className, context.getClassLoader()) : loadClass(className);
+        if(!(type instanceof ClassType)) {
+            throw new EvaluateException("Class not found in the target VM: " + className);
+        }
+        return (ClassType) type;
+    }
+
+    /**
+     * without the IDE: a class loaded already, or loaded through the system class loader of the target VM.
+     */
+    @Nullable
+    private ReferenceType loadClass(@NotNull String className) throws EvaluateException {
+        for(ReferenceType type : vm.classesByName(className)) {
+            if(type instanceof ClassType) return type;
+        }
+        Value loader = invokeStatic("java.lang.ClassLoader", "getSystemClassLoader", null);
+        Value c = invokeStatic("java.lang.Class", "forName", "(Ljava/lang/String;ZLjava/lang/ClassLoader;)Ljava/lang/Class;",
+                mirrorOf(className), mirrorOf(true), loader);
+        return c instanceof ClassObjectReference ? ((ClassObjectReference) c).reflectedType() : null;
+    }
+
+    @NotNull
+    private Method findMethod(@NotNull ReferenceType type, @NotNull String name, @Nullable String signature, int argCount) throws EvaluateException {
+        Map<ReferenceType, Map<String, Method>> vmMethods;
+        synchronized (METHODS) {
+            vmMethods = METHODS.get(vm);
+            if(vmMethods==null) {
+                vmMethods = new ConcurrentHashMap<ReferenceType, Map<String, Method>>();
+                METHODS.put(vm, vmMethods);
+            }
+        }
+        Map<String, Method> typeMethods = vmMethods.get(type);
+        if(typeMethods==null) {
+            typeMethods = new ConcurrentHashMap<String, Method>();
+            vmMethods.put(type, typeMethods);
+        }
+        String key = name + (signature==null ? "/" + argCount : signature);
+        Method method = typeMethods.get(key);
+        if(method==null) {
+            List<Method> candidates = signature==null ? type.methodsByName(name) : type.methodsByName(name, signature);
+            for(Method m : candidates) {
+                if(!m.isAbstract() && m.argumentTypeNames().size()==argCount) {
+                    method = m;
+                    break;
+                }
+            }
+            if(method==null) {
+                throw new EvaluateException("No method " + name + " in " + type.name());
+            }
+            typeMethods.put(key, method);
+        }
+        return method;
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 2007-2018 iText Group NV
+ * Authors: Bruno Lowagie et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+
+package com.itextpdf.pdfdebug;
+
+import com.intellij.ui.content.Content;
+import com.itextpdf.rups.Rups;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The document tabs of the pdfDebug tool window, each with a RUPS engine of its own, so that switching between
+ * documents keeps what was parsed for each of them. Bounded by {@link PdfDebugSettings#maxDocumentTabs};
+ * the least recently shown tab is evicted first.
+ */
+final class RupsPool {
+    /**
+     * one document tab. The RUPS engine is created and used on EDT, the rest is read by the clone threads too.
+     */
+    static final class View {
+        private final String name;
+        private final Content content;
+        private final boolean stored;
+        private Rups rups;
+        private volatile SnapshotFingerprint loadedFingerprint;
+        private volatile SnapshotObjects loadedObjects;
+        private volatile SoftReference<byte[]> loadedPdf;
+        private volatile long loadedBytes;
+        private volatile CloneRemotePdfDocument clone;
+        /**
+         * pause in which this tab was last asked for a snapshot, EDT only.
+         */
+        private int requestedPause = -1;
+
+        /**
+         * @param stored true for a snapshot opened from the history rather than a variable of the debug session
+         */
+        View(@NotNull String name, @NotNull Content content, @Nullable Rups rups, boolean stored) {
+            this.name = name;
+            this.content = content;
+            this.rups = rups;
+            this.stored = stored;
+        }
+
+        @NotNull
+        String getName() {
+            return name;
+        }
+
+        boolean isStored() {
+            return stored;
+        }
+
+        @NotNull
+        Content getContent() {
+            return content;
+        }
+
+        @NotNull
+        JComponent getHolder() {
+            return content.getComponent();
+        }
+
+        @Nullable
+        Rups getRups() {
+            return rups;
+        }
+
+        void setRups(@NotNull Rups rups) {
+            this.rups = rups;
+        }
+
+        /**
+         * @return fingerprint of the document loaded into this tab, null if none.
+         */
+        @Nullable
+        SnapshotFingerprint getLoadedFingerprint() {
+            return loadedFingerprint;
+        }
+
+        /**
+         * @return object hashes of the document loaded into this tab, null if unknown.
+         */
+        @Nullable
+        SnapshotObjects getLoadedObjects() {
+            return loadedObjects;
+        }
+
+        /**
+         * @return the raw PDF loaded into this tab, null if none or the garbage collector needed the memory.
+         */
+        @Nullable
+        byte[] getLoadedPdf() {
+            SoftReference<byte[]> ref = loadedPdf;
+            return ref==null ? null : ref.get();
+        }
+
+        long getLoadedBytes() {
+            return loadedBytes;
+        }
+
+        /**
+         * @param pdf the raw PDF, only softly referenced: the snapshot cache usually holds it anyway,
+         *            and it's needed only if the next snapshot is diffed against it
+         */
+        void setLoaded(@Nullable SnapshotFingerprint fingerprint, @Nullable SnapshotObjects objects, @NotNull byte[] pdf) {
+            loadedFingerprint = fingerprint;
+            loadedObjects = objects;
+            loadedPdf = new SoftReference<byte[]>(pdf);
+            loadedBytes = pdf.length;
+        }
+
+        /**
+         * forget the loaded document, the next snapshot is loaded without comparing.
+         */
+        void resetLoaded() {
+            loadedFingerprint = null;
+            loadedObjects = null;
+            loadedPdf = null;
+        }
+
+        /**
+         * remember that a snapshot was asked for in <code>pause</code>. MUST be called on EDT.
+         * @return true if one was already asked for in the same pause, i.e. the user selected the document again.
+         */
+        boolean request(int pause) {
+            boolean again = requestedPause==pause;
+            requestedPause = pause;
+            return again;
+        }
+
+        /**
+         * make <code>clone</code> the one this tab waits for, abandoning the previous one. Clones of other tabs go on.
+         */
+        void setClone(@Nullable CloneRemotePdfDocument clone) {
+            CloneRemotePdfDocument previous = this.clone;
+            this.clone = clone;
+            if(previous!=null && previous!=clone) previous.cancel();
+        }
+    }
+
+    private final LinkedHashMap<String, View> views = new LinkedHashMap<String, View>(16, 0.75f, true);
+
+    /**
+     * @return the tab of <code>name</code>, now the most recently used one, or null.
+     */
+    @Nullable
+    synchronized View get(@NotNull String name) {
+        return views.get(name);
+    }
+
+    /**
+     * @return all tabs, least recently used first.
+     */
+    @NotNull
+    synchronized List<View> getViews() {
+        return new ArrayList<View>(views.values());
+    }
+
+    synchronized boolean contains(@NotNull View view) {
+        // get() would count as a use of the tab
+        return views.containsValue(view);
+    }
+
+    /**
+     * @return the tabs evicted to make room for <code>view</code>, their clones are cancelled.
+     */
+    @NotNull
+    synchronized List<View> add(@NotNull View view) {
+        views.put(view.getName(), view);
+        List<View> evicted = new ArrayList<View>();
+        int max = Math.max(1, PdfDebugSettings.getInstance().maxDocumentTabs);
+        Iterator<View> it = views.values().iterator();
+        while(views.size()>max && it.hasNext()) {
+            View eldest = it.next();
+            if(eldest==view) continue;
+            it.remove();
+            eldest.setClone(null);
+            evicted.add(eldest);
+        }
+        return evicted;
+    }
+
+    /**
+     * drop the tab of <code>name</code>, e.g. after the user closed it.
+     */
+    synchronized void remove(@NotNull String name) {
+        View view = views.remove(name);
+        if(view!=null) view.setClone(null);
+    }
+
+    /**
+     * drop all tabs, cancelling their clones.
+     * @return the dropped tabs
+     */
+    @NotNull
+    synchronized List<View> clear() {
+        List<View> dropped = new ArrayList<View>(views.values());
+        for(View view : dropped) {
+            view.setClone(null);
+        }
+        views.clear();
+        return dropped;
+    }
+
+    /**
+     * drop the tabs of the debug session's variables, cancelling their clones; tabs of stored snapshots stay.
+     * @return the dropped tabs
+     */
+    @NotNull
+    synchronized List<View> clearLive() {
+        List<View> dropped = new ArrayList<View>();
+        Iterator<View> it = views.values().iterator();
+        while(it.hasNext()) {
+            View view = it.next();
+            if(view.isStored()) continue;
+            it.remove();
+            view.setClone(null);
+            dropped.add(view);
+        }
+        return dropped;
+    }
+
+    /**
+     * @return length of the raw PDFs loaded into all tabs.
+     */
+    synchronized long getLoadedBytes() {
+        long total = 0;
+        for(View view : views.values()) {
+            total += view.getLoadedBytes();
+        }
+        return total;
+    }
+
+    synchronized void resetLoaded() {
+        for(View view : views.values()) {
+            // a stored snapshot is never compared with
+            if(!view.isStored()) view.resetLoaded();
+        }
+    }
+}
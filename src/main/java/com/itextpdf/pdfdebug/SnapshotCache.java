@@ -0,0 +1,205 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 2007-2018 iText Group NV
+ * Authors: Bruno Lowagie et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+
+package com.itextpdf.pdfdebug;
+
+import com.sun.jdi.ArrayReference;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.VirtualMachine;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of debug PDF bytes, bounded by {@link PdfDebugSettings#cacheBudgetMb}.
+ * Only the latest snapshot of every remote PdfDocument is kept, along with the last transfer that timed out.
+ */
+final class SnapshotCache {
+    private static final long MB = 1024 * 1024;
+
+    private final LinkedHashMap<Key, byte[]> entries = new LinkedHashMap<Key, byte[]>(16, 0.75f, true);
+    private long totalBytes;
+    private Key partialKey;
+    private PartialTransfer partial;
+
+    /**
+     * a remote array that timed out during its transfer, pinned in the target VM with what arrived of it.
+     * A new snapshot of the same state differs in its dates and IDs, only this very array can be completed.
+     */
+    static final class PartialTransfer {
+        final ArrayReference array;
+        final int rawLength;
+        final boolean isDebugBytes;
+        final RemoteByteArrayReader.Partial received;
+
+        PartialTransfer(@NotNull ArrayReference array, int rawLength, boolean isDebugBytes, @NotNull RemoteByteArrayReader.Partial received) {
+            this.array = array;
+            this.rawLength = rawLength;
+            this.isDebugBytes = isDebugBytes;
+            this.received = received;
+        }
+    }
+
+    @Nullable
+    synchronized byte[] get(@NotNull Key key) {
+        return entries.get(key);
+    }
+
+    /**
+     * @return the last snapshot of <code>pdfDoc</code>, whatever its fingerprint was, or null.
+     */
+    @Nullable
+    synchronized byte[] getLatest(@NotNull ObjectReference pdfDoc) {
+        VirtualMachine vm = pdfDoc.virtualMachine();
+        long uniqueId = pdfDoc.uniqueID();
+        for(Map.Entry<Key, byte[]> e : entries.entrySet()) {
+            if(e.getKey().vm==vm && e.getKey().uniqueId==uniqueId) return e.getValue();
+        }
+        return null;
+    }
+
+    synchronized void put(@NotNull Key key, @NotNull byte[] debugBytes) {
+        removeObject(key.vm, key.uniqueId);
+        if(partialKey!=null && partialKey.vm==key.vm && partialKey.uniqueId==key.uniqueId) {
+            dropPartial();
+        }
+        entries.put(key, debugBytes);
+        totalBytes += debugBytes.length;
+        long budget = PdfDebugSettings.getInstance().cacheBudgetMb * MB;
+        Iterator<Map.Entry<Key, byte[]>> it = entries.entrySet().iterator();
+        // the entry just added is the most recent one and always stays
+        while(totalBytes>budget && entries.size()>1) {
+            Map.Entry<Key, byte[]> eldest = it.next();
+            totalBytes -= eldest.getValue().length;
+            it.remove();
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        totalBytes = 0;
+        dropPartial();
+    }
+
+    synchronized long getTotalBytes() {
+        return totalBytes + (partial==null ? 0 : partial.received.length());
+    }
+
+    /**
+     * keep <code>transfer</code> instead of the previous one, its array is released once it's dropped.
+     */
+    synchronized void putPartial(@NotNull Key key, @NotNull PartialTransfer transfer) {
+        dropPartial();
+        partialKey = key;
+        partial = transfer;
+    }
+
+    /**
+     * @return the transfer of the snapshot <code>key</code> stands for, taken out of the cache along with
+     * the duty to release its array; null if there is none.
+     */
+    @Nullable
+    synchronized PartialTransfer takePartial(@NotNull Key key) {
+        if(!key.equals(partialKey)) return null;
+        PartialTransfer transfer = partial;
+        partialKey = null;
+        partial = null;
+        return transfer;
+    }
+
+    private void dropPartial() {
+        if(partial!=null) {
+            try {
+                partial.array.enableCollection();
+            } catch (RuntimeException ignored) {
+                // collected anyway or the target VM is gone
+            }
+        }
+        partialKey = null;
+        partial = null;
+    }
+
+    private void removeObject(VirtualMachine vm, long uniqueId) {
+        Iterator<Map.Entry<Key, byte[]>> it = entries.entrySet().iterator();
+        while(it.hasNext()) {
+            Map.Entry<Key, byte[]> e = it.next();
+            if(e.getKey().vm==vm && e.getKey().uniqueId==uniqueId) {
+                totalBytes -= e.getValue().length;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * identity of a remote PdfDocument plus a cheap fingerprint of its state, see {@link SnapshotExpressions#fingerprint(String)}.
+     */
+    static final class Key {
+        private final VirtualMachine vm;
+        private final long uniqueId;
+        private final String remoteFingerprint;
+
+        Key(@NotNull ObjectReference pdfDoc, @NotNull String remoteFingerprint) {
+            this.vm = pdfDoc.virtualMachine();
+            this.uniqueId = pdfDoc.uniqueID();
+            this.remoteFingerprint = remoteFingerprint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this==o) return true;
+            if(!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return vm==that.vm && uniqueId==that.uniqueId && remoteFingerprint.equals(that.remoteFingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(uniqueId) + remoteFingerprint.hashCode();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 2007-2018 iText Group NV
+ * Authors: Bruno Lowagie et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+
+package com.itextpdf.pdfdebug;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Deflates snapshot bytes in the target VM and inflates them once they arrived.
+ * Debug PDFs keep their content streams uncompressed, so this pays off mostly for remote-attach sessions
+ * where JDWP bandwidth is the bottleneck.
+ */
+final class SnapshotCompression {
+    /**
+     * snapshots smaller than this are sent as they are.
+     */
+    static final int MIN_LENGTH = 1024 * 1024;
+
+    /**
+     * tail of a code fragment evaluated in the target VM, after {@link SnapshotExpressions#BYTES_VAR} is assigned.
+     * The result is <code>{payload, rawLength}</code>, where <code>rawLength</code> is "-1" if the payload isn't deflated.
+     */
+    private static final String FRAGMENT_TAIL = "byte[] pdfDebugPayload = pdfDebugBytes;\n"
+            + "int pdfDebugRawLength = -1;\n"
+            + "if (pdfDebugBytes != null && pdfDebugBytes.length >= %d) {\n"
+            + "    java.io.ByteArrayOutputStream pdfDebugZipped = new java.io.ByteArrayOutputStream(pdfDebugBytes.length / 4);\n"
+            + "    java.util.zip.Deflater pdfDebugDeflater = new java.util.zip.Deflater(%d);\n"
+            + "    java.util.zip.DeflaterOutputStream pdfDebugZip = new java.util.zip.DeflaterOutputStream(pdfDebugZipped, pdfDebugDeflater);\n"
+            + "    pdfDebugZip.write(pdfDebugBytes);\n"
+            + "    pdfDebugZip.close();\n"
+            + "    pdfDebugDeflater.end();\n"
+            + "    pdfDebugPayload = pdfDebugZipped.toByteArray();\n"
+            + "    pdfDebugRawLength = pdfDebugBytes.length;\n"
+            + "}\n"
+            + "new Object[] {pdfDebugPayload, String.valueOf(pdfDebugRawLength)}";
+    static final int PAYLOAD_INDEX = 0;
+    static final int RAW_LENGTH_INDEX = 1;
+
+    private SnapshotCompression() {
+        // do not create an instance
+    }
+
+    /**
+     * @param level <code>Deflater</code> level, 1 (fastest) to 9 (smallest)
+     */
+    @NotNull
+    static String fragmentTail(int level) {
+        return String.format(FRAGMENT_TAIL, MIN_LENGTH, level);
+    }
+
+    /**
+     * @param payload deflated snapshot, transferred whole: read chunk by chunk as the inflater asks for it,
+     *                every chunk would wait for a round trip of its own
+     * @param rawLength length of the inflated snapshot
+     */
+    @NotNull
+    static byte[] inflate(@NotNull byte[] payload, int rawLength, @NotNull ProgressIndicator indicator)
+            throws DataFormatException {
+        indicator.checkCanceled();
+        byte[] result = new byte[rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(payload);
+            int produced = 0;
+            while(!inflater.finished()) {
+                int n = inflater.inflate(result, produced, rawLength - produced);
+                if(n==0) break; // truncated input, full output or a dictionary needed, all mean corrupt data
+                produced += n;
+            }
+            if(produced!=rawLength || !inflater.finished()) {
+                throw new DataFormatException(String.format("Inflated %d of %d bytes", produced, rawLength));
+            }
+        } finally {
+            inflater.end();
+        }
+        indicator.setText2(String.format("Compressed to %.1f%% (%d of %d bytes)", 100.0 * payload.length / rawLength, payload.length, rawLength));
+        return result;
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 2007-2018 iText Group NV
+ * Authors: Bruno Lowagie et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+
+package com.itextpdf.pdfdebug;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Rebuilds a snapshot from the previous one of the same document, fetching only blocks that changed.
+ * The target VM hashes its new bytes in fixed blocks (Adler-32 and CRC-32). The plugin then slides a
+ * rolling Adler-32 over the previous snapshot to find those blocks at any offset, so content shifted
+ * by an edit earlier in the file is still reused. Only blocks found nowhere cross JDWP.
+ * <p>
+ * Hashing a block takes {@link #INVOCATIONS_PER_BLOCK} method invocations in the target VM, each a JDWP round trip,
+ * whether they are made directly or by the debugger evaluator interpreting the fragment. That's why the number
+ * of blocks is capped, and why the transfer is only chosen when the measured link makes it cheaper than
+ * sending the whole snapshot, see {@link #isCheaperThanTransfer(SnapshotLink, int)}.
+ */
+final class SnapshotDelta {
+    /**
+     * previous snapshots smaller than this are cheaper to transfer in full.
+     */
+    static final int MIN_LENGTH = 4 * 1024 * 1024;
+    private static final int MIN_BLOCK_SIZE = 64 * 1024;
+    private static final int MAX_BLOCKS = 128;
+    private static final int ADLER_MOD = 65521;
+    /**
+     * see {@link SnapshotInvocations#blockHashes(RemoteInvoker, com.sun.jdi.ArrayReference)}.
+     */
+    private static final int INVOCATIONS_PER_BLOCK = 6;
+    /**
+     * the full transfer may be deflated, and the delta still has to fetch the changed blocks.
+     */
+    private static final double TRANSFER_SHARE = 0.5;
+
+    /**
+     * tail of a code fragment evaluated in the target VM, after {@link SnapshotExpressions#BYTES_VAR} is assigned.
+     * The result is <code>{bytes, adler32[], crc32[]}</code>.
+     */
+    static final String FRAGMENT_TAIL = String.format("int[] pdfDebugWeak = null;\n"
+            + "int[] pdfDebugStrong = null;\n"
+            + "if (pdfDebugBytes != null) {\n"
+            + "    int pdfDebugBlock = Math.max(%d, (pdfDebugBytes.length + %d) / %d);\n"
+            + "    int pdfDebugCount = (pdfDebugBytes.length + pdfDebugBlock - 1) / pdfDebugBlock;\n"
+            + "    pdfDebugWeak = new int[pdfDebugCount];\n"
+            + "    pdfDebugStrong = new int[pdfDebugCount];\n"
+            + "    java.util.zip.Adler32 pdfDebugAdler = new java.util.zip.Adler32();\n"
+            + "    java.util.zip.CRC32 pdfDebugCrc = new java.util.zip.CRC32();\n"
+            + "    for (int i = 0; i < pdfDebugCount; i++) {\n"
+            + "        int pdfDebugOff = i * pdfDebugBlock;\n"
+            + "        int pdfDebugLen = Math.min(pdfDebugBlock, pdfDebugBytes.length - pdfDebugOff);\n"
+            + "        pdfDebugAdler.reset();\n"
+            + "        pdfDebugAdler.update(pdfDebugBytes, pdfDebugOff, pdfDebugLen);\n"
+            + "        pdfDebugWeak[i] = (int) pdfDebugAdler.getValue();\n"
+            + "        pdfDebugCrc.reset();\n"
+            + "        pdfDebugCrc.update(pdfDebugBytes, pdfDebugOff, pdfDebugLen);\n"
+            + "        pdfDebugStrong[i] = (int) pdfDebugCrc.getValue();\n"
+            + "    }\n"
+            + "}\n"
+            + "new Object[] {pdfDebugBytes, pdfDebugWeak, pdfDebugStrong}",
+            MIN_BLOCK_SIZE, MAX_BLOCKS - 1, MAX_BLOCKS);
+    static final int BYTES_INDEX = 0;
+    static final int WEAK_INDEX = 1;
+    static final int STRONG_INDEX = 2;
+
+    private final byte[] previous;
+    private final int[] weak;
+    private final int[] strong;
+
+    /**
+     * @param previous last snapshot of the same remote document
+     * @param weak Adler-32 of every block of the new snapshot
+     * @param strong CRC-32 of every block of the new snapshot
+     */
+    SnapshotDelta(@NotNull byte[] previous, @NotNull int[] weak, @NotNull int[] strong) {
+        this.previous = previous;
+        this.weak = weak;
+        this.strong = strong;
+    }
+
+    /**
+     * same formula as in {@link #FRAGMENT_TAIL}.
+     */
+    static int blockSize(int length) {
+        return Math.max(MIN_BLOCK_SIZE, (length + MAX_BLOCKS - 1) / MAX_BLOCKS);
+    }
+
+    /**
+     * @param length expected length of the snapshot
+     * @return true if hashing it block by block is expected to take less than transferring it over <code>link</code>;
+     * false while the link isn't measured.
+     */
+    static boolean isCheaperThanTransfer(@NotNull SnapshotLink link, int length) {
+        long invokeNanos = link.getInvokeNanos();
+        double bytesPerSecond = link.getBytesPerSecond();
+        if(invokeNanos<0 || bytesPerSecond<=0) return false;
+        int blockSize = blockSize(length);
+        int blockCount = (length + blockSize - 1) / blockSize;
+        double hashSeconds = (2 + (double) blockCount * INVOCATIONS_PER_BLOCK) * invokeNanos / 1e9;
+        return hashSeconds<TRANSFER_SHARE * length / bytesPerSecond;
+    }
+
+    /**
+     * @param remote the new snapshot in the target VM
+     * @return the new snapshot, or null if the hashes don't fit its length.
+     */
+    @Nullable
+    byte[] rebuild(@NotNull RemoteByteArrayReader remote, @NotNull ProgressIndicator indicator) {
+        int length = remote.length();
+        int blockSize = blockSize(length);
+        int blockCount = (length + blockSize - 1) / blockSize;
+        if(weak.length!=blockCount || strong.length!=blockCount) return null;
+
+        byte[] result = new byte[length];
+        BitSet found = findInPrevious(result, blockSize, blockCount, indicator);
+        // runs of missing blocks, requested together so that the reader keeps the link busy
+        List<int[]> missing = new ArrayList<int[]>();
+        for(int i=found.nextClearBit(0);i<blockCount;i=found.nextClearBit(i)) {
+            int next = found.nextSetBit(i);
+            int end = next<0 ? blockCount : next;
+            int offset = i * blockSize;
+            missing.add(new int[]{offset, Math.min(end * blockSize, length) - offset});
+            i = end;
+        }
+        remote.readRanges(missing, result, indicator);
+        indicator.setText2(String.format("%d of %d blocks reused", found.cardinality(), blockCount));
+        return result;
+    }
+
+    /**
+     * copy every new block that also occurs in {@link #previous} into <code>result</code>.
+     */
+    private BitSet findInPrevious(byte[] result, int blockSize, int blockCount, ProgressIndicator indicator) {
+        BitSet found = new BitSet(blockCount);
+        int fullBlocks = result.length / blockSize; // a short tail block is always fetched
+        if(previous.length<blockSize || fullBlocks==0) return found;
+
+        // sorted copy for a cheap "is this window a candidate" test
+        int[] sortedWeak = new int[fullBlocks];
+        for(int i=0;i<fullBlocks;i++) sortedWeak[i] = weak[i];
+        Arrays.sort(sortedWeak);
+        int remaining = fullBlocks;
+
+        CRC32 crc = new CRC32();
+        int a = 1;
+        int b = 0;
+        for(int i=0;i<blockSize;i++) {
+            a = (a + (previous[i] & 0xff)) % ADLER_MOD;
+            b = (b + a) % ADLER_MOD;
+        }
+        int last = previous.length - blockSize;
+        for(int pos=0;pos<=last && remaining>0;pos++) {
+            int adler = (b << 16) | a;
+            if(Arrays.binarySearch(sortedWeak, adler)>=0) {
+                remaining -= claimBlocks(adler, pos, blockSize, fullBlocks, crc, found, result);
+            }
+            if(pos<last) {
+                int out = previous[pos] & 0xff;
+                int in = previous[pos + blockSize] & 0xff;
+                a = Math.floorMod(a - out + in, ADLER_MOD);
+                b = Math.floorMod(b - (int) ((long) blockSize * out % ADLER_MOD) + a - 1, ADLER_MOD);
+            }
+            if((pos & 0xfffff)==0) indicator.checkCanceled();
+        }
+        return found;
+    }
+
+    /**
+     * @return number of not yet found blocks matching the window at <code>pos</code>.
+     */
+    private int claimBlocks(int adler, int pos, int blockSize, int fullBlocks, CRC32 crc, BitSet found, byte[] result) {
+        int claimed = 0;
+        int windowCrc = 0;
+        boolean crcDone = false;
+        for(int i=0;i<fullBlocks;i++) {
+            if(weak[i]!=adler || found.get(i)) continue;
+            if(!crcDone) {
+                crc.reset();
+                crc.update(previous, pos, blockSize);
+                windowCrc = (int) crc.getValue();
+                crcDone = true;
+            }
+            if(strong[i]==windowCrc) {
+                System.arraycopy(previous, pos, result, i * blockSize, blockSize);
+                found.set(i);
+                claimed++;
+            }
+        }
+        return claimed;
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 2007-2018 iText Group NV
+ * Authors: Bruno Lowagie et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+
+package com.itextpdf.pdfdebug;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Code fragments evaluated in the debug target VM to produce snapshot bytes.
+ * Every body assigns {@link #BYTES_VAR}, so transports can be appended to it.
+ */
+final class SnapshotExpressions {
+    static final String BYTES_VAR = "pdfDebugBytes";
+
+    private static final String SERIALIZED_BYTES_BODY = "byte[] pdfDebugBytes = %s.getSerializedBytes();\n";
+
+    /**
+     * same steps as {@link PdfDocumentHelper#deserialize(byte[])} and
+     * {@link PdfDocumentHelper#getDebugBytes(com.itextpdf.kernel.pdf.PdfDocument)},
+     * but run next to the original document so that only the PDF crosses the wire.
+     */
+    private static final String DEBUG_BYTES_BODY = "byte[] pdfDebugBytes = null;\n"
+            + "byte[] pdfDebugSerialized = %s.getSerializedBytes();\n"
+            + "if (pdfDebugSerialized != null) {\n"
+            + "    java.io.ObjectInputStream pdfDebugIn = new java.io.ObjectInputStream(new java.io.ByteArrayInputStream(pdfDebugSerialized));\n"
+            + "    pdfDebugSerialized = null;\n"
+            + "    com.itextpdf.kernel.pdf.PdfDocument pdfDebugClone = (com.itextpdf.kernel.pdf.PdfDocument) pdfDebugIn.readObject();\n"
+            + "    pdfDebugIn.close();\n"
+            + "    com.itextpdf.kernel.pdf.PdfWriter pdfDebugWriter = pdfDebugClone.getWriter();\n"
+            + "    pdfDebugWriter.setCloseStream(true);\n"
+            + "    pdfDebugClone.setCloseWriter(false);\n"
+            + "%s"
+            + "    pdfDebugClone.close();\n"
+            + "    pdfDebugBytes = pdfDebugWriter.getDebugBytes();\n"
+            + "    pdfDebugWriter.close();\n"
+            + "}\n";
+
+    /**
+     * same steps as {@link PdfDocumentHelper#getScopedBytes(com.itextpdf.kernel.pdf.PdfDocument, SnapshotScope, boolean)}
+     * on a clone of the remote document, the original is never touched. The clone is released as by
+     * {@link PdfDocumentHelper#discard(com.itextpdf.kernel.pdf.PdfDocument)}; a fragment that fails half way leaves it to the
+     * garbage collector, the evaluator may not take a <code>finally</code>.
+     * Arguments: document, WriterProperties expression, statements filling <code>pdfDebugSubset</code>.
+     */
+    private static final String SCOPED_BODY = "byte[] pdfDebugBytes = null;\n"
+            + "byte[] pdfDebugSerialized = %s.getSerializedBytes();\n"
+            + "if (pdfDebugSerialized != null) {\n"
+            + "    java.io.ObjectInputStream pdfDebugIn = new java.io.ObjectInputStream(new java.io.ByteArrayInputStream(pdfDebugSerialized));\n"
+            + "    pdfDebugSerialized = null;\n"
+            + "    com.itextpdf.kernel.pdf.PdfDocument pdfDebugClone = (com.itextpdf.kernel.pdf.PdfDocument) pdfDebugIn.readObject();\n"
+            + "    pdfDebugIn.close();\n"
+            + "    java.io.ByteArrayOutputStream pdfDebugOut = new java.io.ByteArrayOutputStream();\n"
+            + "    com.itextpdf.kernel.pdf.PdfDocument pdfDebugSubset = new com.itextpdf.kernel.pdf.PdfDocument(\n"
+            + "            new com.itextpdf.kernel.pdf.PdfWriter(pdfDebugOut, %s));\n"
+            + "%s"
+            + "    if (pdfDebugSubset.getNumberOfPages() == 0) {\n"
+            + "        pdfDebugSubset.addNewPage();\n"
+            + "    }\n"
+            + "    pdfDebugSubset.close();\n"
+            + "    pdfDebugBytes = pdfDebugOut.toByteArray();\n"
+            + "    if (pdfDebugClone.getWriter() != null) {\n"
+            + "        pdfDebugClone.getWriter().close();\n"
+            + "    }\n"
+            + "    if (pdfDebugClone.getReader() != null) {\n"
+            + "        pdfDebugClone.getReader().close();\n"
+            + "    }\n"
+            + "}\n";
+
+    private static final String PAGES_STATEMENTS = "    int pdfDebugFrom = Math.max(1, %d);\n"
+            + "    int pdfDebugTo = Math.min(%d, pdfDebugClone.getNumberOfPages());\n"
+            + "    if (pdfDebugFrom <= pdfDebugTo) {\n"
+            + "        pdfDebugClone.copyPagesTo(pdfDebugFrom, pdfDebugTo, pdfDebugSubset);\n"
+            + "    }\n";
+
+    /**
+     * shallow copy of PdfDocumentHelper, unrolled into one loop over a queue since a code fragment can't declare methods.
+     * The listed objects are queued first with <code>pdfDebugNum</code> set, their contents after that.
+     * Arguments: last object number, first object number.
+     */
+    private static final String OBJECTS_STATEMENTS = "    com.itextpdf.kernel.pdf.PdfArray pdfDebugObjects = new com.itextpdf.kernel.pdf.PdfArray();\n"
+            + "    java.util.ArrayDeque<com.itextpdf.kernel.pdf.PdfObject[]> pdfDebugPending = new java.util.ArrayDeque<com.itextpdf.kernel.pdf.PdfObject[]>();\n"
+            + "    java.util.ArrayDeque<com.itextpdf.kernel.pdf.PdfObject> pdfDebugSources = new java.util.ArrayDeque<com.itextpdf.kernel.pdf.PdfObject>();\n"
+            + "    int pdfDebugLast = Math.min(%d, pdfDebugClone.getNumberOfPdfObjects() - 1);\n"
+            + "    for (int pdfDebugNum = %d; pdfDebugNum <= pdfDebugLast; pdfDebugNum++) {\n"
+            + "        com.itextpdf.kernel.pdf.PdfObject pdfDebugObject = pdfDebugClone.getPdfObject(pdfDebugNum);\n"
+            + "        if (pdfDebugObject != null && !pdfDebugObject.isFlushed()) {\n"
+            + "            pdfDebugSources.add(pdfDebugObject);\n"
+            + "        }\n"
+            + "    }\n"
+            + "    com.itextpdf.kernel.pdf.PdfObject pdfDebugTarget = null;\n"
+            + "    while (!pdfDebugSources.isEmpty() || !pdfDebugPending.isEmpty()) {\n"
+            + "        java.util.List<com.itextpdf.kernel.pdf.PdfObject> pdfDebugValues = new java.util.ArrayList<com.itextpdf.kernel.pdf.PdfObject>();\n"
+            + "        java.util.List<com.itextpdf.kernel.pdf.PdfName> pdfDebugKeys = new java.util.ArrayList<com.itextpdf.kernel.pdf.PdfName>();\n"
+            + "        if (!pdfDebugSources.isEmpty()) {\n"
+            + "            pdfDebugTarget = null;\n"
+            + "            pdfDebugValues.add(pdfDebugSources.poll());\n"
+            + "        } else {\n"
+            + "            com.itextpdf.kernel.pdf.PdfObject[] pdfDebugPair = pdfDebugPending.poll();\n"
+            + "            pdfDebugTarget = pdfDebugPair[1];\n"
+            + "            if (pdfDebugPair[0].isArray()) {\n"
+            + "                com.itextpdf.kernel.pdf.PdfArray pdfDebugFrom = (com.itextpdf.kernel.pdf.PdfArray) pdfDebugPair[0];\n"
+            + "                for (int pdfDebugI = 0; pdfDebugI < pdfDebugFrom.size(); pdfDebugI++) {\n"
+            + "                    pdfDebugValues.add(pdfDebugFrom.get(pdfDebugI, false));\n"
+            + "                }\n"
+            + "            } else {\n"
+            + "                com.itextpdf.kernel.pdf.PdfDictionary pdfDebugFrom = (com.itextpdf.kernel.pdf.PdfDictionary) pdfDebugPair[0];\n"
+            + "                for (com.itextpdf.kernel.pdf.PdfName pdfDebugName : pdfDebugFrom.keySet()) {\n"
+            + "                    if (pdfDebugPair[0].isStream() && com.itextpdf.kernel.pdf.PdfName.Length.equals(pdfDebugName)) continue;\n"
+            + "                    pdfDebugKeys.add(pdfDebugName);\n"
+            + "                    pdfDebugValues.add(pdfDebugFrom.get(pdfDebugName, false));\n"
+            + "                }\n"
+            + "            }\n"
+            + "        }\n"
+            + "        for (int pdfDebugI = 0; pdfDebugI < pdfDebugValues.size(); pdfDebugI++) {\n"
+            + "            com.itextpdf.kernel.pdf.PdfObject pdfDebugValue = pdfDebugValues.get(pdfDebugI);\n"
+            + "            com.itextpdf.kernel.pdf.PdfObject pdfDebugCopy;\n"
+            + "            com.itextpdf.kernel.pdf.PdfIndirectReference pdfDebugRef = pdfDebugValue.isIndirectReference()\n"
+            + "                    ? (com.itextpdf.kernel.pdf.PdfIndirectReference) pdfDebugValue\n"
+            + "                    : pdfDebugTarget == null ? null : pdfDebugValue.getIndirectReference();\n"
+            + "            if (pdfDebugRef != null) {\n"
+            + "                pdfDebugCopy = new com.itextpdf.kernel.pdf.PdfString(pdfDebugRef.getObjNumber() + \" \" + pdfDebugRef.getGenNumber() + \" R\");\n"
+            + "            } else if (pdfDebugValue.isStream()) {\n"
+            + "                pdfDebugCopy = new com.itextpdf.kernel.pdf.PdfStream(((com.itextpdf.kernel.pdf.PdfStream) pdfDebugValue).getBytes(false))\n"
+            + "                        .setCompressionLevel(" + PdfDocumentHelper.NO_COMPRESSION + ");\n"
+            + "                pdfDebugPending.add(new com.itextpdf.kernel.pdf.PdfObject[] {pdfDebugValue, pdfDebugCopy});\n"
+            + "            } else if (pdfDebugValue.isDictionary()) {\n"
+            + "                pdfDebugCopy = new com.itextpdf.kernel.pdf.PdfDictionary();\n"
+            + "                pdfDebugPending.add(new com.itextpdf.kernel.pdf.PdfObject[] {pdfDebugValue, pdfDebugCopy});\n"
+            + "            } else if (pdfDebugValue.isArray()) {\n"
+            + "                pdfDebugCopy = new com.itextpdf.kernel.pdf.PdfArray();\n"
+            + "                pdfDebugPending.add(new com.itextpdf.kernel.pdf.PdfObject[] {pdfDebugValue, pdfDebugCopy});\n"
+            + "            } else {\n"
+            + "                pdfDebugCopy = pdfDebugValue.clone();\n"
+            + "            }\n"
+            + "            if (pdfDebugTarget == null) {\n"
+            + "                pdfDebugObjects.add(pdfDebugCopy.makeIndirect(pdfDebugSubset));\n"
+            + "            } else if (pdfDebugTarget.isArray()) {\n"
+            + "                ((com.itextpdf.kernel.pdf.PdfArray) pdfDebugTarget).add(pdfDebugCopy);\n"
+            + "            } else {\n"
+            + "                ((com.itextpdf.kernel.pdf.PdfDictionary) pdfDebugTarget).put(pdfDebugKeys.get(pdfDebugI), pdfDebugCopy);\n"
+            + "            }\n"
+            + "        }\n"
+            + "    }\n"
+            + "    pdfDebugSubset.getCatalog().put(new com.itextpdf.kernel.pdf.PdfName(\"" + SnapshotScope.OBJECTS_KEY + "\"), pdfDebugObjects);\n";
+
+    /**
+     * cheap summary of the remote document state: object count, page count, writer position
+     * and the size of the last page's open content stream. Objects edited in place without
+     * touching any of those are not noticed, which is the price for not transferring anything.
+     */
+    private static final String FINGERPRINT_FRAGMENT = "com.itextpdf.kernel.pdf.PdfDocument pdfDebugDoc = %s;\n"
+            + "long pdfDebugContent = -1;\n"
+            + "if (!pdfDebugDoc.isClosed() && pdfDebugDoc.getNumberOfPages() > 0 && !pdfDebugDoc.getLastPage().isFlushed()) {\n"
+            + "    com.itextpdf.kernel.pdf.PdfStream pdfDebugStream = pdfDebugDoc.getLastPage().getLastContentStream();\n"
+            + "    if (pdfDebugStream != null && pdfDebugStream.getOutputStream() != null) {\n"
+            + "        pdfDebugContent = pdfDebugStream.getOutputStream().getCurrentPos();\n"
+            + "    }\n"
+            + "}\n"
+            + "pdfDebugDoc.getNumberOfPdfObjects() + \":\" + pdfDebugDoc.getNumberOfPages() + \":\"\n"
+            + "        + (pdfDebugDoc.getWriter() == null ? -1 : pdfDebugDoc.getWriter().getCurrentPos()) + \":\" + pdfDebugContent";
+
+    private static final String SKIP_COMPRESSION_STATEMENT = "    pdfDebugWriter.setCompressionLevel("
+            + PdfDocumentHelper.NO_COMPRESSION + ");\n";
+
+    private SnapshotExpressions() {
+        // do not create an instance
+    }
+
+    /**
+     * @param docExpr expression referring to the PdfDocument in the target VM
+     * @param debugBytes true to build the debug PDF in the target VM, false to return the serialized document.
+     * @param skipCompression leave the streams of the debug PDF uncompressed, see {@link PdfDocumentHelper#getDebugBytes(com.itextpdf.kernel.pdf.PdfDocument, boolean)}
+     * @param scope part of the document the debug PDF is limited to, null for all of it
+     */
+    @NotNull
+    static String body(@NotNull String docExpr, boolean debugBytes, boolean skipCompression, @Nullable SnapshotScope scope) {
+        if(!debugBytes) return String.format(SERIALIZED_BYTES_BODY, docExpr);
+        if(scope!=null) {
+            String properties = "new com.itextpdf.kernel.pdf.WriterProperties()"
+                    + (skipCompression ? ".setCompressionLevel(" + PdfDocumentHelper.NO_COMPRESSION + ")" : "");
+            String statements = scope.getKind()==SnapshotScope.Kind.PAGES
+                    ? String.format(PAGES_STATEMENTS, scope.getFrom(), scope.getTo())
+                    : String.format(OBJECTS_STATEMENTS, scope.getTo(), scope.getFrom());
+            return String.format(SCOPED_BODY, docExpr, properties, statements);
+        }
+        return String.format(DEBUG_BYTES_BODY, docExpr, skipCompression ? SKIP_COMPRESSION_STATEMENT : "");
+    }
+
+    /**
+     * @param docExpr expression referring to the PdfDocument in the target VM
+     * @return code fragment evaluating to a <code>String</code> that changes when the document grows.
+     */
+    @NotNull
+    static String fingerprint(@NotNull String docExpr) {
+        return String.format(FINGERPRINT_FRAGMENT, docExpr);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 2007-2018 iText Group NV
+ * Authors: Bruno Lowagie et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+
+package com.itextpdf.pdfdebug;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Cheap identity of a debug PDF, used to tell whether RUPS already shows the same document.
+ * Every close() of a cloned document stamps a new <code>/ModDate</code> and <code>/ID</code>,
+ * so the values of those keys are left out of the digest.
+ */
+final class SnapshotFingerprint {
+    private static final String DIGEST_ALGORITHM = "SHA-1";
+    private static final byte[][] VOLATILE_KEYS = {
+            "/ModDate".getBytes(),
+            "/ID".getBytes()
+    };
+
+    private final int length;
+    private final byte[] digest;
+
+    private SnapshotFingerprint(int length, byte[] digest) {
+        this.length = length;
+        this.digest = digest;
+    }
+
+    @NotNull
+    static SnapshotFingerprint of(@NotNull byte[] pdfBytes) {
+        MessageDigest md = newDigest();
+        int segStart = 0;
+        int i = 0;
+        while(i<pdfBytes.length) {
+            int keyLen = volatileKeyAt(pdfBytes, i);
+            if(keyLen==0) {
+                i++;
+                continue;
+            }
+            int valueStart = i + keyLen;
+            md.update(pdfBytes, segStart, valueStart - segStart);
+            segStart = skipValue(pdfBytes, valueStart);
+            i = segStart;
+        }
+        md.update(pdfBytes, segStart, pdfBytes.length - segStart);
+        return new SnapshotFingerprint(pdfBytes.length, md.digest());
+    }
+
+    int getLength() {
+        return length;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // every JRE ships SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int volatileKeyAt(byte[] bytes, int pos) {
+        if(bytes[pos]!='/') return 0;
+        for(byte[] key : VOLATILE_KEYS) {
+            int end = pos + key.length;
+            if(end>bytes.length) continue;
+            boolean match = true;
+            for(int k=1;k<key.length && match;k++) {
+                match = bytes[pos+k]==key[k];
+            }
+            // "/IDTree" is not "/ID"
+            if(match && (end==bytes.length || isDelimiterOrSpace(bytes[end]))) return key.length;
+        }
+        return 0;
+    }
+
+    /**
+     * @return position after the string, array or hex string starting at <code>pos</code> (after whitespace).
+     */
+    private static int skipValue(byte[] bytes, int pos) {
+        while(pos<bytes.length && isSpace(bytes[pos])) pos++;
+        if(pos>=bytes.length) return pos;
+        byte close;
+        switch (bytes[pos]) {
+            case '(': close = ')'; break;
+            case '[': close = ']'; break;
+            case '<': close = '>'; break;
+            default: return pos; // indirect reference or anything unexpected stays in the digest
+        }
+        int end = pos + 1;
+        while(end<bytes.length && bytes[end]!=close) {
+            if(bytes[end]=='\\') end++; // escaped character in a literal string
+            end++;
+        }
+        return Math.min(end + 1, bytes.length);
+    }
+
+    private static boolean isSpace(byte b) {
+        return b==' ' || b=='\n' || b=='\r' || b=='\t' || b=='\f' || b==0;
+    }
+
+    private static boolean isDelimiterOrSpace(byte b) {
+        return isSpace(b) || b=='(' || b==')' || b=='<' || b=='>' || b=='[' || b==']'
+                || b=='{' || b=='}' || b=='/' || b=='%';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this==o) return true;
+        if(!(o instanceof SnapshotFingerprint)) return false;
+        SnapshotFingerprint that = (SnapshotFingerprint) o;
+        return length==that.length && Arrays.equals(digest, that.digest);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * length + Arrays.hashCode(digest);
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 2007-2018 iText Group NV
+ * Authors: Bruno Lowagie et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+
+package com.itextpdf.pdfdebug;
+
+import com.intellij.debugger.engine.evaluation.EvaluateException;
+import com.sun.jdi.ArrayReference;
+import com.sun.jdi.BooleanValue;
+import com.sun.jdi.IntegerValue;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.PrimitiveValue;
+import com.sun.jdi.StringReference;
+import com.sun.jdi.Value;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.UUID;
+
+/**
+ * The steps of {@link SnapshotExpressions} and of the transport fragments, done by calling the target VM's methods
+ * through a {@link RemoteInvoker}. Nothing is compiled, and the document is reached through its reference,
+ * so fields and nested values work as well as local variables.
+ * Each method produces what the matching code fragment does.
+ */
+final class SnapshotInvocations {
+    private static final String PDF = "com.itextpdf.kernel.pdf.";
+    private static final String PDF_PATH = "com/itextpdf/kernel/pdf/";
+
+    private SnapshotInvocations() {
+        // do not create an instance
+    }
+
+    /**
+     * @see SnapshotExpressions#fingerprint(String)
+     */
+    @NotNull
+    static String fingerprint(@NotNull RemoteInvoker inv, @NotNull ObjectReference doc) throws EvaluateException {
+        long content = -1;
+        if(!booleanValue(inv.invoke(doc, "isClosed", null)) && intValue(inv.invoke(doc, "getNumberOfPages", null))>0) {
+            ObjectReference page = (ObjectReference) inv.invoke(doc, "getLastPage", null);
+            if(!booleanValue(inv.invoke(page, "isFlushed", null))) {
+                ObjectReference stream = (ObjectReference) inv.invoke(page, "getLastContentStream", null);
+                ObjectReference out = stream==null ? null : (ObjectReference) inv.invoke(stream, "getOutputStream", null);
+                if(out!=null) {
+                    content = longValue(inv.invoke(out, "getCurrentPos", null));
+                }
+            }
+        }
+        ObjectReference writer = (ObjectReference) inv.invoke(doc, "getWriter", null);
+        long writerPos = writer==null ? -1 : longValue(inv.invoke(writer, "getCurrentPos", null));
+        return intValue(inv.invoke(doc, "getNumberOfPdfObjects", null)) + ":" + intValue(inv.invoke(doc, "getNumberOfPages", null))
+                + ":" + writerPos + ":" + content;
+    }
+
+    /**
+     * @see SnapshotExpressions#body(String, boolean, boolean, SnapshotScope)
+     * @return the snapshot bytes, or null if the document can't be serialized.
+     */
+    @Nullable
+    static ArrayReference body(@NotNull RemoteInvoker inv, @NotNull ObjectReference doc, boolean debugBytes,
+                               boolean skipCompression, @Nullable SnapshotScope scope) throws EvaluateException {
+        ArrayReference serialized = serializedBytes(inv, doc);
+        if(!debugBytes || serialized==null) return serialized;
+        return debugBytes(inv, serialized, skipCompression, scope);
+    }
+
+    /**
+     * first half of {@link #body(RemoteInvoker, ObjectReference, boolean, boolean, SnapshotScope)}.
+     * @return the serialized document, or null if it can't be serialized.
+     */
+    @Nullable
+    static ArrayReference serializedBytes(@NotNull RemoteInvoker inv, @NotNull ObjectReference doc) throws EvaluateException {
+        return (ArrayReference) inv.invoke(doc, "getSerializedBytes", null);
+    }
+
+    /**
+     * second half of {@link #body(RemoteInvoker, ObjectReference, boolean, boolean, SnapshotScope)}:
+     * the debug PDF of the document <code>serialized</code> holds.
+     */
+    @Nullable
+    static ArrayReference debugBytes(@NotNull RemoteInvoker inv, @NotNull ArrayReference serialized,
+                                     boolean skipCompression, @Nullable SnapshotScope scope) throws EvaluateException {
+        ObjectReference in = inv.newInstance("java.io.ObjectInputStream", "(Ljava/io/InputStream;)V",
+                inv.newInstance("java.io.ByteArrayInputStream", "([B)V", serialized));
+        ObjectReference clone = (ObjectReference) inv.invoke(in, "readObject", null);
+        inv.invoke(in, "close", null);
+        if(scope!=null) return scopedBytes(inv, clone, skipCompression, scope);
+        ObjectReference writer = (ObjectReference) inv.invoke(clone, "getWriter", null);
+        inv.invoke(writer, "setCloseStream", null, inv.mirrorOf(true));
+        inv.invoke(clone, "setCloseWriter", null, inv.mirrorOf(false));
+        if(skipCompression) {
+            inv.invoke(writer, "setCompressionLevel", null, inv.mirrorOf(PdfDocumentHelper.NO_COMPRESSION));
+        }
+        inv.invoke(clone, "close", null);
+        ArrayReference bytes = (ArrayReference) inv.invoke(writer, "getDebugBytes", null);
+        inv.invoke(writer, "close", null);
+        return bytes;
+    }
+
+    /**
+     * @see PdfDocumentHelper#getScopedBytes(com.itextpdf.kernel.pdf.PdfDocument, SnapshotScope, boolean)
+     * The clone is released whether or not the scope could be built.
+     */
+    @NotNull
+    private static ArrayReference scopedBytes(@NotNull RemoteInvoker inv, @NotNull ObjectReference clone, boolean skipCompression,
+                                              @NotNull SnapshotScope scope) throws EvaluateException {
+        try {
+            ObjectReference out = inv.newInstance("java.io.ByteArrayOutputStream", "()V");
+            ObjectReference properties = inv.newInstance(PDF + "WriterProperties", "()V");
+            if(skipCompression) {
+                inv.invoke(properties, "setCompressionLevel", null, inv.mirrorOf(PdfDocumentHelper.NO_COMPRESSION));
+            }
+            ObjectReference writer = inv.newInstance(PDF + "PdfWriter",
+                    "(Ljava/io/OutputStream;L" + PDF_PATH + "WriterProperties;)V", out, properties);
+            ObjectReference subset = inv.newInstance(PDF + "PdfDocument", "(L" + PDF_PATH + "PdfWriter;)V", writer);
+            if(scope.getKind()==SnapshotScope.Kind.PAGES) {
+                int from = Math.max(1, scope.getFrom());
+                int to = Math.min(scope.getTo(), intValue(inv.invoke(clone, "getNumberOfPages", null)));
+                if(from<=to) {
+                    inv.invoke(clone, "copyPagesTo", "(IIL" + PDF_PATH + "PdfDocument;)Ljava/util/List;",
+                            inv.mirrorOf(from), inv.mirrorOf(to), subset);
+                }
+            } else {
+                copyObjects(inv, clone, subset, scope);
+            }
+            if(intValue(inv.invoke(subset, "getNumberOfPages", null))==0) {
+                inv.invoke(subset, "addNewPage", null);
+            }
+            inv.invoke(subset, "close", null);
+            return (ArrayReference) inv.invoke(out, "toByteArray", null);
+        } finally {
+            discard(inv, clone);
+        }
+    }
+
+    /**
+     * the object scope of {@link PdfDocumentHelper#getScopedBytes(com.itextpdf.kernel.pdf.PdfDocument, SnapshotScope, boolean)}:
+     * a shallow copy of the listed objects, filled breadth first.
+     */
+    private static void copyObjects(@NotNull RemoteInvoker inv, @NotNull ObjectReference clone, @NotNull ObjectReference subset,
+                                    @NotNull SnapshotScope scope) throws EvaluateException {
+        ObjectReference objects = inv.newInstance(PDF + "PdfArray", "()V");
+        Deque<ObjectReference[]> pending = new ArrayDeque<ObjectReference[]>();
+        int last = Math.min(scope.getTo(), intValue(inv.invoke(clone, "getNumberOfPdfObjects", null)) - 1);
+        for(int i=scope.getFrom();i<=last;i++) {
+            ObjectReference obj = (ObjectReference) inv.invoke(clone, "getPdfObject", "(I)L" + PDF_PATH + "PdfObject;", inv.mirrorOf(i));
+            if(obj!=null && !booleanValue(inv.invoke(obj, "isFlushed", null))) {
+                ObjectReference copy = copyObject(inv, obj, pending);
+                inv.invoke(objects, "add", null, inv.invoke(copy, "makeIndirect", "(L" + PDF_PATH + "PdfDocument;)L" + PDF_PATH + "PdfObject;", subset));
+            }
+        }
+        while(!pending.isEmpty()) {
+            ObjectReference[] pair = pending.poll();
+            if(booleanValue(inv.invoke(pair[0], "isArray", null))) {
+                int size = intValue(inv.invoke(pair[0], "size", null));
+                for(int i=0;i<size;i++) {
+                    ObjectReference value = (ObjectReference) inv.invoke(pair[0], "get", null, inv.mirrorOf(i), inv.mirrorOf(false));
+                    inv.invoke(pair[1], "add", null, copyValue(inv, value, pending));
+                }
+            } else {
+                boolean stream = booleanValue(inv.invoke(pair[0], "isStream", null));
+                ObjectReference keySet = (ObjectReference) inv.invoke(pair[0], "keySet", null);
+                ArrayReference keys = (ArrayReference) inv.invoke(keySet, "toArray", "()[Ljava/lang/Object;");
+                for(Value key : keys.getValues()) {
+                    // the writer sets the length of the copied stream
+                    if(stream && "Length".equals(stringValue(inv.invoke((ObjectReference) key, "getValue", null)))) continue;
+                    ObjectReference value = (ObjectReference) inv.invoke(pair[0], "get", null, key, inv.mirrorOf(false));
+                    inv.invoke(pair[1], "put", null, key, copyValue(inv, value, pending));
+                }
+            }
+        }
+        ObjectReference catalog = (ObjectReference) inv.invoke(subset, "getCatalog", null);
+        inv.invoke(catalog, "put", null, inv.newInstance(PDF + "PdfName", "(Ljava/lang/String;)V",
+                inv.mirrorOf(SnapshotScope.OBJECTS_KEY)), objects);
+    }
+
+    /**
+     * a reference, or an indirect object held directly, becomes a string like <code>(12 0 R)</code>.
+     */
+    @NotNull
+    private static ObjectReference copyValue(@NotNull RemoteInvoker inv, @NotNull ObjectReference value,
+                                             @NotNull Deque<ObjectReference[]> pending) throws EvaluateException {
+        ObjectReference ref = booleanValue(inv.invoke(value, "isIndirectReference", null))
+                ? value : (ObjectReference) inv.invoke(value, "getIndirectReference", null);
+        if(ref!=null) {
+            String s = intValue(inv.invoke(ref, "getObjNumber", null)) + " " + intValue(inv.invoke(ref, "getGenNumber", null)) + " R";
+            return inv.newInstance(PDF + "PdfString", "(Ljava/lang/String;)V", inv.mirrorOf(s));
+        }
+        return copyObject(inv, value, pending);
+    }
+
+    /**
+     * copy <code>obj</code> without following its references, containers are queued with their source in <code>pending</code>.
+     */
+    @NotNull
+    private static ObjectReference copyObject(@NotNull RemoteInvoker inv, @NotNull ObjectReference obj,
+                                              @NotNull Deque<ObjectReference[]> pending) throws EvaluateException {
+        ObjectReference copy;
+        if(booleanValue(inv.invoke(obj, "isStream", null))) {
+            Value data = inv.invoke(obj, "getBytes", "(Z)[B", inv.mirrorOf(false));
+            copy = inv.newInstance(PDF + "PdfStream", "([B)V", data);
+            inv.invoke(copy, "setCompressionLevel", null, inv.mirrorOf(PdfDocumentHelper.NO_COMPRESSION));
+        } else if(booleanValue(inv.invoke(obj, "isDictionary", null))) {
+            copy = inv.newInstance(PDF + "PdfDictionary", "()V");
+        } else if(booleanValue(inv.invoke(obj, "isArray", null))) {
+            copy = inv.newInstance(PDF + "PdfArray", "()V");
+        } else {
+            return (ObjectReference) inv.invoke(obj, "clone", "()L" + PDF_PATH + "PdfObject;");
+        }
+        pending.add(new ObjectReference[]{obj, copy});
+        return copy;
+    }
+
+    /**
+     * @see PdfDocumentHelper#discard(com.itextpdf.kernel.pdf.PdfDocument)
+     */
+    private static void discard(@NotNull RemoteInvoker inv, @NotNull ObjectReference clone) {
+        try {
+            ObjectReference writer = (ObjectReference) inv.invoke(clone, "getWriter", null);
+            if(writer!=null) inv.invoke(writer, "close", null);
+            ObjectReference reader = (ObjectReference) inv.invoke(clone, "getReader", null);
+            if(reader!=null) inv.invoke(reader, "close", null);
+        } catch (EvaluateException ignored) {
+            // the clone is garbage either way, an exception on the way out must not hide the one that got us here
+        }
+    }
+
+    /**
+     * @see SnapshotSideChannel#FRAGMENT_TAIL
+     * @return absolute path of the temporary file holding <code>bytes</code>, or null if the IDE can't read it;
+     * the file is deleted again in that case.
+     */
+    @Nullable
+    static String writeTempFile(@NotNull RemoteInvoker inv, @NotNull ArrayReference bytes) throws EvaluateException {
+        ObjectReference file = (ObjectReference) inv.invokeStatic("java.io.File", "createTempFile",
+                "(Ljava/lang/String;Ljava/lang/String;)Ljava/io/File;", inv.mirrorOf("pdfdebug"), inv.mirrorOf(".snapshot"));
+        ObjectReference out = inv.newInstance("java.io.FileOutputStream", "(Ljava/io/File;)V", file);
+        inv.invoke(out, "write", "([B)V", bytes);
+        inv.invoke(out, "close", null);
+        Value path = inv.invoke(file, "getAbsolutePath", null);
+        String result = path instanceof StringReference ? ((StringReference) path).value() : null;
+        if(!SnapshotSideChannel.isVisible(result, bytes.length())) {
+            SnapshotSideChannel.setVisibility(inv.getVirtualMachine(), false);
+            inv.invoke(file, "delete", null);
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the IDE sees the temp files of the target VM. The first call per target VM writes a probe file
+     * with unique content and records the answer, see {@link SnapshotSideChannel#getVisibility(com.sun.jdi.VirtualMachine)}.
+     */
+    static boolean isSideChannelVisible(@NotNull RemoteInvoker inv) {
+        Boolean visible = SnapshotSideChannel.getVisibility(inv.getVirtualMachine());
+        if(visible==null) {
+            try {
+                visible = probeSideChannel(inv);
+            } catch (EvaluateException ex) {
+                // e.g. no writable temp directory in the target VM
+                visible = false;
+            }
+            SnapshotSideChannel.setVisibility(inv.getVirtualMachine(), visible);
+        }
+        return visible;
+    }
+
+    private static boolean probeSideChannel(@NotNull RemoteInvoker inv) throws EvaluateException {
+        String marker = "pdfDebug probe " + UUID.randomUUID();
+        ObjectReference file = (ObjectReference) inv.invokeStatic("java.io.File", "createTempFile",
+                "(Ljava/lang/String;Ljava/lang/String;)Ljava/io/File;", inv.mirrorOf("pdfdebug"), inv.mirrorOf(".probe"));
+        try {
+            ObjectReference out = inv.newInstance("java.io.FileOutputStream", "(Ljava/io/File;)V", file);
+            inv.invoke(out, "write", "([B)V", inv.invoke((ObjectReference) inv.mirrorOf(marker), "getBytes", "()[B"));
+            inv.invoke(out, "close", null);
+            Value path = inv.invoke(file, "getAbsolutePath", null);
+            return SnapshotSideChannel.isProbeVisible(path instanceof StringReference ? ((StringReference) path).value() : null,
+                    marker.getBytes(StandardCharsets.US_ASCII));
+        } finally {
+            inv.invoke(file, "delete", null);
+        }
+    }
+
+    /**
+     * @see SnapshotCompression#fragmentTail(int)
+     * @return deflated <code>bytes</code>, or null if they are too short to be worth it.
+     */
+    @Nullable
+    static ArrayReference deflate(@NotNull RemoteInvoker inv, @NotNull ArrayReference bytes, int level) throws EvaluateException {
+        int length = bytes.length();
+        if(length<SnapshotCompression.MIN_LENGTH) return null;
+        ObjectReference zipped = inv.newInstance("java.io.ByteArrayOutputStream", "(I)V", inv.mirrorOf(length / 4));
+        ObjectReference deflater = inv.newInstance("java.util.zip.Deflater", "(I)V", inv.mirrorOf(level));
+        ObjectReference zip = inv.newInstance("java.util.zip.DeflaterOutputStream",
+                "(Ljava/io/OutputStream;Ljava/util/zip/Deflater;)V", zipped, deflater);
+        inv.invoke(zip, "write", "([B)V", bytes);
+        inv.invoke(zip, "close", null);
+        inv.invoke(deflater, "end", null);
+        return (ArrayReference) inv.invoke(zipped, "toByteArray", null);
+    }
+
+    /**
+     * @see SnapshotDelta#FRAGMENT_TAIL
+     * @return weak and strong hashes of the blocks of <code>bytes</code>.
+     */
+    @NotNull
+    static int[][] blockHashes(@NotNull RemoteInvoker inv, @NotNull ArrayReference bytes) throws EvaluateException {
+        int length = bytes.length();
+        int blockSize = SnapshotDelta.blockSize(length);
+        int count = (length + blockSize - 1) / blockSize;
+        int[] weak = new int[count];
+        int[] strong = new int[count];
+        ObjectReference adler = inv.newInstance("java.util.zip.Adler32", null);
+        ObjectReference crc = inv.newInstance("java.util.zip.CRC32", null);
+        for(int i=0;i<count;i++) {
+            Value off = inv.mirrorOf(i * blockSize);
+            Value len = inv.mirrorOf(Math.min(blockSize, length - i * blockSize));
+            inv.invoke(adler, "reset", null);
+            inv.invoke(adler, "update", "([BII)V", bytes, off, len);
+            weak[i] = (int) longValue(inv.invoke(adler, "getValue", null));
+            inv.invoke(crc, "reset", null);
+            inv.invoke(crc, "update", "([BII)V", bytes, off, len);
+            strong[i] = (int) longValue(inv.invoke(crc, "getValue", null));
+        }
+        return new int[][]{weak, strong};
+    }
+
+    private static boolean booleanValue(@Nullable Value v) {
+        return v instanceof BooleanValue && ((BooleanValue) v).value();
+    }
+
+    private static int intValue(@Nullable Value v) {
+        return v instanceof IntegerValue ? ((IntegerValue) v).value() : -1;
+    }
+
+    @Nullable
+    private static String stringValue(@Nullable Value v) {
+        return v instanceof StringReference ? ((StringReference) v).value() : null;
+    }
+
+    private static long longValue(@Nullable Value v) {
+        return v instanceof PrimitiveValue ? ((PrimitiveValue) v).longValue() : -1;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 2007-2018 iText Group NV
+ * Authors: Bruno Lowagie et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.pdfdebug;
+
+import com.sun.jdi.VirtualMachine;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * What snapshots measured about the link to one debug target VM: the time of a bare method invocation
+ * and the throughput of array transfers. The measurements outlive a single snapshot, so the next one
+ * can choose its transport by cost.
+ */
+final class SnapshotLink {
+    private static final Map<VirtualMachine, SnapshotLink> LINKS =
+            Collections.synchronizedMap(new WeakHashMap<VirtualMachine, SnapshotLink>());
+
+    private volatile long invokeNanos = -1;
+    private volatile double bytesPerSecond = -1;
+
+    private SnapshotLink() {
+    }
+
+    @NotNull
+    static SnapshotLink of(@NotNull VirtualMachine vm) {
+        synchronized (LINKS) {
+            SnapshotLink link = LINKS.get(vm);
+            if(link==null) {
+                link = new SnapshotLink();
+                LINKS.put(vm, link);
+            }
+            return link;
+        }
+    }
+
+    void recordInvoke(long nanos) {
+        // the quickest invocation is the closest to a bare round trip
+        if(invokeNanos<0 || nanos<invokeNanos) invokeNanos = nanos;
+    }
+
+    void recordThroughput(double bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * @return time of the quickest method invocation so far, or -1.
+     */
+    long getInvokeNanos() {
+        return invokeNanos;
+    }
+
+    /**
+     * @return throughput of the last array transfer, or -1.
+     */
+    double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 2007-2018 iText Group NV
+ * Authors: Bruno Lowagie et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+
+package com.itextpdf.pdfdebug;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Timings, byte counts and allocation of one snapshot, from the remote evaluation to the RUPS load.
+ * Phases may be recorded from different threads; allocation is only known for phases that start and end
+ * on the same thread.
+ */
+final class SnapshotMetrics {
+    enum Phase {
+        OPEN("open"),
+        FINGERPRINT("remote fingerprint"),
+        EVALUATE("remote evaluation"),
+        TRANSFER("transfer"),
+        DESERIALIZE("deserialize"),
+        DEBUG_BYTES("getDebugBytes"),
+        DIFF("object diff"),
+        COMPARE("compare"),
+        LOAD("load");
+
+        private final String title;
+
+        Phase(String title) {
+            this.title = title;
+        }
+
+        @NotNull
+        String getTitle() {
+            return title;
+        }
+    }
+
+    private static final com.sun.management.ThreadMXBean ALLOCATION_BEAN = initAllocationBean();
+
+    private final String document;
+    private final long startedAt = System.currentTimeMillis();
+    private final Map<Phase, Long> nanos = new EnumMap<Phase, Long>(Phase.class);
+    private final Map<Phase, Long> allocated = new EnumMap<Phase, Long>(Phase.class);
+    private volatile String transport = "";
+    private volatile long wireBytes = -1;
+    private volatile long snapshotBytes = -1;
+    private volatile boolean cacheHit;
+    private volatile boolean prefetch;
+    private volatile int changedObjects = -1;
+
+    SnapshotMetrics(@NotNull String document) {
+        this.document = document;
+    }
+
+    @Nullable
+    private static com.sun.management.ThreadMXBean initAllocationBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if(bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if(sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) return sunBean;
+        }
+        return null;
+    }
+
+    private static long currentThreadAllocation() {
+        return ALLOCATION_BEAN==null ? -1 : ALLOCATION_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * @return a running measurement of <code>phase</code>, finished by {@link Measurement#end()}.
+     */
+    @NotNull
+    Measurement begin(@NotNull Phase phase) {
+        return new Measurement(phase);
+    }
+
+    synchronized void record(@NotNull Phase phase, long elapsedNanos, long allocatedBytes) {
+        // a phase may run more than once, e.g. an evaluation retried with a simpler fragment
+        Long prev = nanos.get(phase);
+        nanos.put(phase, prev==null ? elapsedNanos : prev + elapsedNanos);
+        if(allocatedBytes>=0) {
+            Long prevAlloc = allocated.get(phase);
+            allocated.put(phase, prevAlloc==null ? allocatedBytes : prevAlloc + allocatedBytes);
+        }
+    }
+
+    void setTransport(@NotNull String transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * @param wireBytes bytes copied over JDI, less than the snapshot for delta, deflated or side channel transfers
+     */
+    void setWireBytes(long wireBytes) {
+        this.wireBytes = wireBytes;
+    }
+
+    void setSnapshotBytes(long snapshotBytes) {
+        this.snapshotBytes = snapshotBytes;
+    }
+
+    void setCacheHit(boolean cacheHit) {
+        this.cacheHit = cacheHit;
+    }
+
+    void setPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    boolean isPrefetch() {
+        return prefetch;
+    }
+
+    /**
+     * @param changedObjects objects changed since the snapshot shown before, -1 if unknown
+     */
+    void setChangedObjects(int changedObjects) {
+        this.changedObjects = changedObjects;
+    }
+
+    int getChangedObjects() {
+        return changedObjects;
+    }
+
+    @NotNull
+    String getDocument() {
+        return document;
+    }
+
+    long getStartedAt() {
+        return startedAt;
+    }
+
+    @NotNull
+    String getTransport() {
+        return cacheHit ? "cache" : transport;
+    }
+
+    long getWireBytes() {
+        return wireBytes;
+    }
+
+    long getSnapshotBytes() {
+        return snapshotBytes;
+    }
+
+    /**
+     * @return milliseconds spent in <code>phase</code>, or -1 if it didn't run.
+     */
+    synchronized double getMillis(@NotNull Phase phase) {
+        Long n = nanos.get(phase);
+        return n==null ? -1 : n / 1e6;
+    }
+
+    /**
+     * @return bytes allocated by <code>phase</code>, or -1 if unknown.
+     */
+    synchronized long getAllocatedBytes(@NotNull Phase phase) {
+        Long a = allocated.get(phase);
+        return a==null ? -1 : a;
+    }
+
+    synchronized double getTotalMillis() {
+        long total = 0;
+        for(Long n : nanos.values()) total += n;
+        return total / 1e6;
+    }
+
+    final class Measurement {
+        private final Phase phase;
+        private final long startNanos = System.nanoTime();
+        private final Thread thread = Thread.currentThread();
+        private final long startAllocation = currentThreadAllocation();
+
+        private Measurement(Phase phase) {
+            this.phase = phase;
+        }
+
+        void end() {
+            long allocation = -1;
+            if(thread==Thread.currentThread() && startAllocation>=0) {
+                allocation = currentThreadAllocation() - startAllocation;
+            }
+            record(phase, System.nanoTime() - startNanos, allocation);
+        }
+    }
+}
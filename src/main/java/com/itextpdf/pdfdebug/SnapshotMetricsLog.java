@@ -0,0 +1,176 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 2007-2018 iText Group NV
+ * Authors: Bruno Lowagie et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+
+package com.itextpdf.pdfdebug;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The last {@link #CAPACITY} snapshot measurements of a project, with CSV and JSON export.
+ */
+final class SnapshotMetricsLog {
+    static final int CAPACITY = 200;
+
+    private final List<SnapshotMetrics> entries = new ArrayList<SnapshotMetrics>();
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<Runnable>();
+
+    void add(@NotNull SnapshotMetrics metrics) {
+        synchronized (entries) {
+            entries.add(metrics);
+            if(entries.size()>CAPACITY) entries.remove(0);
+        }
+        fireChanged();
+    }
+
+    void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+        fireChanged();
+    }
+
+    @NotNull
+    List<SnapshotMetrics> getEntries() {
+        synchronized (entries) {
+            return new ArrayList<SnapshotMetrics>(entries);
+        }
+    }
+
+    /**
+     * @param listener called on any thread when an entry was added or updated
+     */
+    void addListener(@NotNull Runnable listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(@NotNull Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * to be called after a phase was recorded on an entry already in the log.
+     */
+    void fireChanged() {
+        for(Runnable l : listeners) l.run();
+    }
+
+    @NotNull
+    String toCsv() {
+        StringBuilder sb = new StringBuilder("time,document,prefetch,transport,wireBytes,snapshotBytes,changedObjects");
+        for(SnapshotMetrics.Phase phase : SnapshotMetrics.Phase.values()) {
+            sb.append(',').append(phase.name().toLowerCase()).append("Ms");
+            sb.append(',').append(phase.name().toLowerCase()).append("AllocatedBytes");
+        }
+        sb.append('\n');
+        for(SnapshotMetrics m : getEntries()) {
+            sb.append(formatTime(m.getStartedAt())).append(',')
+                    .append(csvText(m.getDocument())).append(',')
+                    .append(m.isPrefetch()).append(',')
+                    .append(m.getTransport()).append(',')
+                    .append(m.getWireBytes()).append(',')
+                    .append(m.getSnapshotBytes()).append(',')
+                    .append(m.getChangedObjects());
+            for(SnapshotMetrics.Phase phase : SnapshotMetrics.Phase.values()) {
+                sb.append(',').append(formatMillis(m.getMillis(phase)));
+                sb.append(',').append(m.getAllocatedBytes(phase));
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    @NotNull
+    String toJson() {
+        StringBuilder sb = new StringBuilder("[");
+        List<SnapshotMetrics> all = getEntries();
+        for(int i=0;i<all.size();i++) {
+            SnapshotMetrics m = all.get(i);
+            sb.append(i==0 ? "\n" : ",\n");
+            sb.append("  {\"time\": \"").append(formatTime(m.getStartedAt()))
+                    .append("\", \"document\": \"").append(jsonText(m.getDocument()))
+                    .append("\", \"prefetch\": ").append(m.isPrefetch())
+                    .append(", \"transport\": \"").append(m.getTransport())
+                    .append("\", \"wireBytes\": ").append(m.getWireBytes())
+                    .append(", \"snapshotBytes\": ").append(m.getSnapshotBytes())
+                    .append(", \"changedObjects\": ").append(m.getChangedObjects())
+                    .append(", \"phases\": {");
+            boolean first = true;
+            for(SnapshotMetrics.Phase phase : SnapshotMetrics.Phase.values()) {
+                double ms = m.getMillis(phase);
+                if(ms<0) continue;
+                sb.append(first ? "" : ", ");
+                first = false;
+                sb.append('"').append(phase.name().toLowerCase()).append("\": {\"ms\": ").append(formatMillis(ms))
+                        .append(", \"allocatedBytes\": ").append(m.getAllocatedBytes(phase)).append('}');
+            }
+            sb.append("}}");
+        }
+        sb.append(all.isEmpty() ? "]\n" : "\n]\n");
+        return sb.toString();
+    }
+
+    @NotNull
+    static String formatMillis(double ms) {
+        return ms<0 ? "-1" : String.format(java.util.Locale.ROOT, "%.1f", ms);
+    }
+
+    private static String formatTime(long millis) {
+        return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS").format(new Date(millis));
+    }
+
+    private static String csvText(String s) {
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String jsonText(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
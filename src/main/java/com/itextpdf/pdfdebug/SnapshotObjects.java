@@ -0,0 +1,264 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 2007-2018 iText Group NV
+ * Authors: Bruno Lowagie et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+
+package com.itextpdf.pdfdebug;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Per-object hashes of a debug PDF, to tell which indirect objects changed between two snapshots
+ * without parsing either of them. Objects are located through the cross-reference table and hashed in parallel.
+ * Documents whose objects can't be located this way, e.g. written with object streams, yield no index.
+ */
+final class SnapshotObjects {
+    /**
+     * objects hashed by one fork-join task.
+     */
+    private static final int OBJECTS_PER_TASK = 256;
+    private static final int TRAILER_SEARCH = 1024;
+
+    private final int[] numbers;
+    private final long[] hashes;
+
+    private SnapshotObjects(int[] numbers, long[] hashes) {
+        this.numbers = numbers;
+        this.hashes = hashes;
+    }
+
+    int size() {
+        return numbers.length;
+    }
+
+    /**
+     * @return index of the in-use objects of <code>pdf</code>, or null if its cross-reference table can't be read.
+     */
+    @Nullable
+    static SnapshotObjects of(@NotNull byte[] pdf) {
+        int xref = findXref(pdf);
+        if(xref<0) return null;
+        long[] entries = readXref(pdf, xref);
+        if(entries==null) return null;
+        // entry = offset << 32 | object number, sorted by offset the next entry ends the object
+        Arrays.sort(entries);
+        int count = entries.length;
+        final int[] byOffsetNumbers = new int[count];
+        final int[] starts = new int[count];
+        final int[] ends = new int[count];
+        for(int i=0;i<count;i++) {
+            starts[i] = (int) (entries[i] >>> 32);
+            byOffsetNumbers[i] = (int) entries[i];
+            ends[i] = i + 1<count ? (int) (entries[i + 1] >>> 32) : xref;
+            if(starts[i]>=ends[i] || ends[i]>pdf.length) return null;
+        }
+        final long[] byOffsetHashes = new long[count];
+        ForkJoinPool.commonPool().invoke(new HashTask(pdf, starts, ends, byOffsetHashes, 0, count));
+
+        // reorder by object number for the merge in changed()
+        long[] order = new long[count];
+        for(int i=0;i<count;i++) order[i] = ((long) byOffsetNumbers[i] << 32) | i;
+        Arrays.sort(order);
+        int[] numbers = new int[count];
+        long[] hashes = new long[count];
+        for(int i=0;i<count;i++) {
+            numbers[i] = (int) (order[i] >>> 32);
+            hashes[i] = byOffsetHashes[(int) order[i]];
+        }
+        return new SnapshotObjects(numbers, hashes);
+    }
+
+    /**
+     * @return sorted numbers of the objects added, removed or modified from <code>before</code> to <code>after</code>.
+     */
+    @NotNull
+    static int[] changed(@NotNull SnapshotObjects before, @NotNull SnapshotObjects after) {
+        int[] result = new int[before.numbers.length + after.numbers.length];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while(i<before.numbers.length || j<after.numbers.length) {
+            if(j>=after.numbers.length || (i<before.numbers.length && before.numbers[i]<after.numbers[j])) {
+                result[n++] = before.numbers[i++];
+            } else if(i>=before.numbers.length || after.numbers[j]<before.numbers[i]) {
+                result[n++] = after.numbers[j++];
+            } else {
+                if(before.hashes[i]!=after.hashes[j]) result[n++] = after.numbers[j];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * @return offset of the last <code>xref</code> keyword, or -1.
+     */
+    private static int findXref(byte[] pdf) {
+        byte[] keyword = "startxref".getBytes(StandardCharsets.ISO_8859_1);
+        for(int i=pdf.length - keyword.length;i>=Math.max(0, pdf.length - TRAILER_SEARCH);i--) {
+            if(matches(pdf, i, keyword)) {
+                int p = skipWhitespace(pdf, i + keyword.length);
+                long offset = 0;
+                int digits = 0;
+                while(p<pdf.length && pdf[p]>='0' && pdf[p]<='9') {
+                    offset = offset * 10 + (pdf[p++] - '0');
+                    digits++;
+                }
+                if(digits==0 || offset>=pdf.length || !matches(pdf, (int) offset, "xref".getBytes(StandardCharsets.ISO_8859_1))) {
+                    // a cross-reference stream
+                    return -1;
+                }
+                return (int) offset;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return in-use entries as <code>offset &lt;&lt; 32 | number</code>, or null if the table is malformed
+     * or continues in an earlier section.
+     */
+    @Nullable
+    private static long[] readXref(byte[] pdf, int xref) {
+        int[] cursor = {xref + 4};
+        long[] entries = new long[64];
+        int n = 0;
+        while(true) {
+            cursor[0] = skipWhitespace(pdf, cursor[0]);
+            if(matches(pdf, cursor[0], "trailer".getBytes(StandardCharsets.ISO_8859_1))) break;
+            long first = readNumber(pdf, cursor);
+            long count = readNumber(pdf, cursor);
+            if(first<0 || count<0) return null;
+            for(long k=0;k<count;k++) {
+                long offset = readNumber(pdf, cursor);
+                long generation = readNumber(pdf, cursor);
+                cursor[0] = skipWhitespace(pdf, cursor[0]);
+                if(offset<0 || generation<0 || cursor[0]>=pdf.length) return null;
+                byte type = pdf[cursor[0]++];
+                if(type=='n') {
+                    if(n==entries.length) entries = Arrays.copyOf(entries, n * 2);
+                    entries[n++] = (offset << 32) | (first + k);
+                }
+            }
+        }
+        int trailerEnd = Math.min(pdf.length, cursor[0] + TRAILER_SEARCH);
+        byte[] prev = "/Prev".getBytes(StandardCharsets.ISO_8859_1);
+        for(int i=cursor[0];i<trailerEnd - prev.length;i++) {
+            if(matches(pdf, i, prev)) return null;
+        }
+        return Arrays.copyOf(entries, n);
+    }
+
+    private static long readNumber(byte[] pdf, int[] cursor) {
+        int p = skipWhitespace(pdf, cursor[0]);
+        long value = 0;
+        int start = p;
+        while(p<pdf.length && pdf[p]>='0' && pdf[p]<='9') {
+            value = value * 10 + (pdf[p++] - '0');
+        }
+        cursor[0] = p;
+        return p==start ? -1 : value;
+    }
+
+    private static int skipWhitespace(byte[] pdf, int p) {
+        while(p<pdf.length && (pdf[p]==' ' || pdf[p]=='\r' || pdf[p]=='\n' || pdf[p]=='\t' || pdf[p]=='\f' || pdf[p]==0)) p++;
+        return p;
+    }
+
+    private static boolean matches(byte[] pdf, int offset, byte[] keyword) {
+        if(offset<0 || offset + keyword.length>pdf.length) return false;
+        for(int i=0;i<keyword.length;i++) {
+            if(pdf[offset + i]!=keyword[i]) return false;
+        }
+        return true;
+    }
+
+    private static final class HashTask extends RecursiveAction {
+        private final byte[] pdf;
+        private final int[] starts;
+        private final int[] ends;
+        private final long[] hashes;
+        private final int from;
+        private final int to;
+
+        HashTask(byte[] pdf, int[] starts, int[] ends, long[] hashes, int from, int to) {
+            this.pdf = pdf;
+            this.starts = starts;
+            this.ends = ends;
+            this.hashes = hashes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from>OBJECTS_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new HashTask(pdf, starts, ends, hashes, from, mid), new HashTask(pdf, starts, ends, hashes, mid, to));
+                return;
+            }
+            MessageDigest md;
+            try {
+                md = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            for(int i=from;i<to;i++) {
+                md.update(pdf, starts[i], ends[i] - starts[i]);
+                byte[] digest = md.digest();
+                long h = 0;
+                for(int k=0;k<8;k++) h = (h << 8) | (digest[k] & 0xff);
+                hashes[i] = h;
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 2007-2018 iText Group NV
+ * Authors: Bruno Lowagie et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+
+package com.itextpdf.pdfdebug;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Part of a document a snapshot is limited to: a page range, or an object number range
+ * whose objects are listed in a <code>/PdfDebugObjects</code> array of the catalog.
+ * Pages are copied with everything they reach. Objects are copied alone: the references they hold
+ * become strings like <code>(12 0 R)</code>, so that an object such as a page doesn't drag the whole document along.
+ */
+final class SnapshotScope {
+    enum Kind {
+        PAGES,
+        OBJECTS
+    }
+
+    static final String OBJECTS_KEY = "PdfDebugObjects";
+
+    private static final Pattern SYNTAX = Pattern.compile("\\s*(pages?|objects?)\\s+(\\d+)\\s*(?:-\\s*(\\d+))?\\s*",
+            Pattern.CASE_INSENSITIVE);
+
+    private final Kind kind;
+    private final int from;
+    private final int to;
+
+    SnapshotScope(@NotNull Kind kind, int from, int to) {
+        if(from<0 || to<from) {
+            throw new IllegalArgumentException("Invalid range " + from + "-" + to);
+        }
+        this.kind = kind;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * @param text e.g. <code>pages 1-50</code>, <code>objects 100-400</code> or <code>page 7</code>; blank for the whole document
+     * @throws IllegalArgumentException if <code>text</code> is none of these
+     */
+    @Nullable
+    static SnapshotScope parse(@Nullable String text) {
+        if(text==null || text.trim().isEmpty()) return null;
+        Matcher m = SYNTAX.matcher(text);
+        if(!m.matches()) {
+            throw new IllegalArgumentException("Expected 'pages 1-50' or 'objects 100-400': " + text);
+        }
+        Kind kind = m.group(1).toLowerCase(Locale.ROOT).startsWith("page") ? Kind.PAGES : Kind.OBJECTS;
+        int from = Integer.parseInt(m.group(2));
+        int to = m.group(3)==null ? from : Integer.parseInt(m.group(3));
+        return new SnapshotScope(kind, from, to);
+    }
+
+    @NotNull
+    Kind getKind() {
+        return kind;
+    }
+
+    int getFrom() {
+        return from;
+    }
+
+    int getTo() {
+        return to;
+    }
+
+    @Override
+    public String toString() {
+        return (kind==Kind.PAGES ? "pages " : "objects ") + from + "-" + to;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 2007-2018 iText Group NV
+ * Authors: Bruno Lowagie et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+
+package com.itextpdf.pdfdebug;
+
+import com.intellij.debugger.engine.JavaDebugProcess;
+import com.intellij.execution.configurations.RemoteConnection;
+import com.intellij.xdebugger.XDebugProcess;
+import com.intellij.xdebugger.XDebugSession;
+import com.itextpdf.rups.model.LoggerHelper;
+import com.sun.jdi.VirtualMachine;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Moves snapshot bytes through a temporary file when the debug target VM runs on this machine.
+ * The target writes the bytes with a single call and the plugin reads the file,
+ * instead of copying the array value by value over JDWP.
+ * The plugin deletes every file once it was read, or asks the target VM to when it can't see it;
+ * nothing is registered with <code>deleteOnExit</code>, which would pile up for the lifetime of the target VM.
+ * <p>
+ * A loopback connection is no proof of a shared file system, a container or an SSH tunnel forwarded to localhost
+ * looks the same. Whether the target's temp files are visible is therefore probed once per target VM,
+ * see {@link #getVisibility(VirtualMachine)}.
+ */
+final class SnapshotSideChannel {
+    private static final Map<VirtualMachine, Boolean> VISIBILITY =
+            Collections.synchronizedMap(new WeakHashMap<VirtualMachine, Boolean>());
+
+    /**
+     * tail of a code fragment evaluated in the target VM, after {@link SnapshotExpressions#BYTES_VAR} is assigned.
+     * The result is <code>{bytes, path}</code>, so the JDI array is still at hand
+     * when the file turns out not to be visible from the IDE.
+     */
+    static final String FRAGMENT_TAIL = "String pdfDebugPath = null;\n"
+            + "if (pdfDebugBytes != null) {\n"
+            + "    java.io.File pdfDebugFile = java.io.File.createTempFile(\"pdfdebug\", \".snapshot\");\n"
+            + "    java.io.FileOutputStream pdfDebugOut = new java.io.FileOutputStream(pdfDebugFile);\n"
+            + "    pdfDebugOut.write(pdfDebugBytes);\n"
+            + "    pdfDebugOut.close();\n"
+            + "    pdfDebugPath = pdfDebugFile.getAbsolutePath();\n"
+            + "}\n"
+            + "new Object[] {pdfDebugBytes, pdfDebugPath}";
+    static final int BYTES_INDEX = 0;
+    static final int PATH_INDEX = 1;
+
+    private SnapshotSideChannel() {
+        // do not create an instance
+    }
+
+    /**
+     * check if the debug target VM looks like it shares the file system with the IDE.
+     * This is only a hint, the first snapshot of each target VM probes it, see {@link #getVisibility(VirtualMachine)}.
+     */
+    static boolean isAvailable(@NotNull XDebugSession session) {
+        XDebugProcess dPs = session.getDebugProcess();
+        if(!(dPs instanceof JavaDebugProcess)) return false;
+        RemoteConnection conn = ((JavaDebugProcess) dPs).getDebuggerSession().getProcess().getConnection();
+        if(conn==null) return false;
+        if(!conn.isUseSockets()) return true; // shared memory transport is always local
+        return isLoopbackHost(conn.getHostName());
+    }
+
+    private static boolean isLoopbackHost(@Nullable String host) {
+        if(host==null || host.isEmpty()) return true;
+        return "localhost".equalsIgnoreCase(host) || host.startsWith("127.")
+                || "::1".equals(host) || "0:0:0:0:0:0:0:1".equals(host);
+    }
+
+    /**
+     * @return true if files written by <code>vm</code> were seen from here, false if not, null if not probed yet.
+     */
+    @Nullable
+    static Boolean getVisibility(@NotNull VirtualMachine vm) {
+        return VISIBILITY.get(vm);
+    }
+
+    static void setVisibility(@NotNull VirtualMachine vm, boolean visible) {
+        Boolean previous = VISIBILITY.put(vm, visible);
+        if(previous==null && !visible) {
+            LoggerHelper.info("The temp files of the debug target VM are not visible from the IDE, "
+                    + "snapshots take the transports of a remote target", SnapshotSideChannel.class);
+        }
+    }
+
+    /**
+     * @param path path of a probe file reported by the target VM
+     * @param content what the target VM wrote to it
+     * @return true if the file can be read from here and holds <code>content</code>; another machine's temp
+     * directory may well hold a file of the same name. The target VM deletes the probe either way.
+     */
+    static boolean isProbeVisible(@Nullable String path, @NotNull byte[] content) {
+        if(!isVisible(path, content.length)) return false;
+        byte[] ba = new byte[content.length];
+        try (RandomAccessFile raf = new RandomAccessFile(path, "r")) {
+            raf.readFully(ba);
+        } catch (IOException ex) {
+            return false;
+        }
+        return Arrays.equals(ba, content);
+    }
+
+    /**
+     * @param path path reported by the target VM
+     * @param expectedLength length of the remote array
+     * @return true if the file written by the target VM can be read from here. If not, the target VM must delete it,
+     * see {@link #deleteFragment(String)}.
+     */
+    static boolean isVisible(@Nullable String path, int expectedLength) {
+        if(path==null) return false;
+        File file = new File(path);
+        return file.isFile() && file.length()==expectedLength;
+    }
+
+    /**
+     * @return code fragment deleting <code>path</code> in the target VM.
+     */
+    @NotNull
+    static String deleteFragment(@NotNull String path) {
+        String literal = path.replace("\\", "\\\\").replace("\"", "\\\"");
+        return "new java.io.File(\"" + literal + "\").delete()";
+    }
+
+    /**
+     * read and delete the file written by {@link #FRAGMENT_TAIL}.
+     * @param path path reported by the target VM, checked with {@link #isVisible(String, int)}
+     * @param expectedLength length of the remote array
+     * @return file content, or null if the file doesn't match.
+     */
+    @Nullable
+    static byte[] read(@Nullable String path, int expectedLength) {
+        if(path==null) return null;
+        File file = new File(path);
+        byte[] ba = null;
+        if(file.isFile() && file.length()==expectedLength) {
+            ba = new byte[expectedLength];
+            // read rather than mapped, a mapped file can't be deleted on Windows
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                raf.readFully(ba);
+            } catch (IOException ex) {
+                LoggerHelper.warn("Cannot read snapshot file " + path, ex, SnapshotSideChannel.class);
+                ba = null;
+            }
+        }
+        if(file.exists() && !file.delete()) {
+            LoggerHelper.warn("Cannot delete snapshot file " + path, SnapshotSideChannel.class);
+        }
+        return ba;
+    }
+}
@@ -0,0 +1,490 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 2007-2018 iText Group NV
+ * Authors: Bruno Lowagie et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+
+package com.itextpdf.pdfdebug;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.itextpdf.rups.model.LoggerHelper;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Snapshots kept on disk across pauses and sessions, under the IDE system directory.
+ * Snapshots are cut into content-defined chunks stored once under their SHA-1, so consecutive snapshots
+ * of a growing document share most of their chunks. Each snapshot is a small manifest listing its chunks.
+ * Snapshots belong to a project and a debug session, the same variable name in another session is another document.
+ * The oldest snapshots are evicted once the chunks exceed {@link PdfDebugSettings#historyBudgetMb};
+ * chunks being read are only deleted once the read is over.
+ */
+public final class SnapshotStore {
+    private static final int MIN_CHUNK = 4 * 1024;
+    private static final int MAX_CHUNK = 64 * 1024;
+    /**
+     * 14 bits give chunks of 16 KB on average; the upper bits of the gear hash depend on more input bytes.
+     */
+    private static final long BOUNDARY_MASK = ((1L << 14) - 1) << 20;
+    private static final long[] GEAR = new long[256];
+    private static final String MANIFEST_SUFFIX = ".snapshot";
+    private static final double MB = 1024 * 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    static {
+        // fixed seed, boundaries must not change between IDE runs
+        Random random = new Random(0x5eed);
+        for(int i=0;i<GEAR.length;i++) GEAR[i] = random.nextLong();
+    }
+
+    /**
+     * one stored snapshot.
+     */
+    static final class Entry {
+        private final File manifest;
+        private final String project;
+        private final String session;
+        private final String document;
+        private final long time;
+        private final int length;
+        private final String digest;
+        private final List<String> chunks;
+
+        private Entry(File manifest, String project, String session, String document, long time, int length,
+                      String digest, List<String> chunks) {
+            this.manifest = manifest;
+            this.project = project;
+            this.session = session;
+            this.document = document;
+            this.time = time;
+            this.length = length;
+            this.digest = digest;
+            this.chunks = chunks;
+        }
+
+        @NotNull
+        String getSession() {
+            return session;
+        }
+
+        @NotNull
+        String getDocument() {
+            return document;
+        }
+
+        private boolean isSameDocument(String project, String session, String document) {
+            return this.document.equals(document) && this.session.equals(session) && this.project.equals(project);
+        }
+
+        long getTime() {
+            return time;
+        }
+
+        int getLength() {
+            return length;
+        }
+    }
+
+    private final File manifestDir;
+    private final File chunkDir;
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<Runnable>();
+    /**
+     * oldest first, loaded from disk on first use.
+     */
+    private List<Entry> entries;
+    private final Map<String, Integer> chunkRefs = new HashMap<String, Integer>();
+    private final Map<String, Long> chunkSizes = new HashMap<String, Long>();
+    private long storedBytes;
+
+    public SnapshotStore() {
+        this(new File(PathManager.getSystemPath(), "pdfdebug" + File.separator + "snapshots"));
+    }
+
+    SnapshotStore(@NotNull File root) {
+        this.manifestDir = new File(root, "manifests");
+        this.chunkDir = new File(root, "chunks");
+    }
+
+    @NotNull
+    static SnapshotStore getInstance() {
+        return ServiceManager.getService(SnapshotStore.class);
+    }
+
+    /**
+     * store <code>bytes</code> unless they equal the latest snapshot of the same document. Blocks on disk I/O.
+     * @param project key of the project, see {@link com.intellij.openapi.project.Project#getLocationHash()}
+     * @param session label of the debug session
+     * @param document name of the variable
+     * @return the new entry, or null if nothing was stored.
+     */
+    @Nullable
+    synchronized Entry add(@NotNull String project, @NotNull String session, @NotNull String document, @NotNull byte[] bytes) {
+        long budget = PdfDebugSettings.getInstance().historyBudgetMb * (long) MB;
+        if(budget<=0) return null;
+        load();
+        String digest = hex(sha1(bytes, 0, bytes.length));
+        for(int i=entries.size()-1;i>=0;i--) {
+            Entry e = entries.get(i);
+            if(e.isSameDocument(project, session, document)) {
+                if(e.digest.equals(digest)) return null;
+                break;
+            }
+        }
+        Entry entry;
+        try {
+            List<String> chunks = new ArrayList<String>();
+            int start = 0;
+            while(start<bytes.length) {
+                int end = nextBoundary(bytes, start);
+                chunks.add(writeChunk(bytes, start, end - start));
+                start = end;
+            }
+            long time = System.currentTimeMillis();
+            File manifest = newManifestFile(time, digest);
+            entry = new Entry(manifest, project, session, document, time, bytes.length, digest, chunks);
+            writeManifest(entry);
+        } catch (IOException ex) {
+            LoggerHelper.warn("Failed to store snapshot of " + document, ex, SnapshotStore.class);
+            return null;
+        }
+        entries.add(entry);
+        addRefs(entry);
+        evict(budget);
+        fireChanged();
+        return entry;
+    }
+
+    /**
+     * @return stored snapshots of <code>project</code>, newest first.
+     */
+    @NotNull
+    synchronized List<Entry> getEntries(@NotNull String project) {
+        load();
+        List<Entry> result = new ArrayList<Entry>();
+        for(int i=entries.size()-1;i>=0;i--) {
+            Entry e = entries.get(i);
+            if(e.project.equals(project)) result.add(e);
+        }
+        return result;
+    }
+
+    /**
+     * reassemble a stored snapshot. Blocks on disk I/O.
+     * The chunks are referenced while they are read, so a concurrent eviction can't delete them.
+     */
+    @NotNull
+    byte[] read(@NotNull Entry entry) throws IOException {
+        synchronized (this) {
+            load();
+            if(!entries.contains(entry)) throw new IOException("Snapshot " + entry.manifest.getName() + " was evicted");
+            addRefs(entry);
+        }
+        try {
+            byte[] bytes = new byte[entry.length];
+            int offset = 0;
+            for(String chunk : entry.chunks) {
+                byte[] data = Files.readAllBytes(chunkFile(chunk).toPath());
+                if(offset + data.length>bytes.length) throw new IOException("Corrupt snapshot " + entry.manifest.getName());
+                System.arraycopy(data, 0, bytes, offset, data.length);
+                offset += data.length;
+            }
+            if(offset!=bytes.length) throw new IOException("Corrupt snapshot " + entry.manifest.getName());
+            return bytes;
+        } finally {
+            synchronized (this) {
+                releaseRefs(entry);
+            }
+        }
+    }
+
+    synchronized void clear() {
+        load();
+        while(!entries.isEmpty()) remove(entries.get(0));
+        fireChanged();
+    }
+
+    /**
+     * @return megabytes the chunks take on disk.
+     */
+    synchronized double getStoredMb() {
+        load();
+        return storedBytes / MB;
+    }
+
+    /**
+     * @param listener called on any thread after snapshots were added or removed
+     */
+    void addListener(@NotNull Runnable listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(@NotNull Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    private void fireChanged() {
+        for(Runnable l : listeners) l.run();
+    }
+
+    /**
+     * gear hash content-defined chunking: a boundary depends only on the bytes just before it,
+     * so an insertion shifts the boundaries after it instead of changing them.
+     * @return end of the chunk starting at <code>start</code>
+     */
+    private static int nextBoundary(byte[] bytes, int start) {
+        int max = Math.min(bytes.length, start + MAX_CHUNK);
+        int i = Math.min(max, start + MIN_CHUNK);
+        long hash = 0;
+        for(;i<max;i++) {
+            hash = (hash << 1) + GEAR[bytes[i] & 0xff];
+            if((hash & BOUNDARY_MASK)==0) return i + 1;
+        }
+        return max;
+    }
+
+    private String writeChunk(byte[] bytes, int offset, int length) throws IOException {
+        String name = hex(sha1(bytes, offset, length));
+        File file = chunkFile(name);
+        if(!chunkSizes.containsKey(name)) {
+            File dir = file.getParentFile();
+            if(!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+            File tmp = new File(dir, name + ".tmp");
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(bytes, offset, length);
+            } finally {
+                out.close();
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            chunkSizes.put(name, (long) length);
+            storedBytes += length;
+        }
+        return name;
+    }
+
+    private File chunkFile(String name) {
+        return new File(new File(chunkDir, name.substring(0, 2)), name);
+    }
+
+    /**
+     * the same document may be stored by two sessions in the same millisecond, a counter keeps the names apart.
+     */
+    private File newManifestFile(long time, String digest) {
+        String base = time + "-" + digest.substring(0, 8);
+        File manifest = new File(manifestDir, base + MANIFEST_SUFFIX);
+        for(int n=1;manifest.exists();n++) {
+            manifest = new File(manifestDir, base + "-" + n + MANIFEST_SUFFIX);
+        }
+        return manifest;
+    }
+
+    private void writeManifest(Entry entry) throws IOException {
+        if(!manifestDir.isDirectory() && !manifestDir.mkdirs()) throw new IOException("Cannot create " + manifestDir);
+        Writer w = new OutputStreamWriter(new FileOutputStream(entry.manifest), StandardCharsets.UTF_8);
+        try {
+            w.write("project=" + entry.project + "\n");
+            w.write("session=" + entry.session + "\n");
+            w.write("document=" + entry.document + "\n");
+            w.write("time=" + entry.time + "\n");
+            w.write("length=" + entry.length + "\n");
+            w.write("digest=" + entry.digest + "\n");
+            for(String chunk : entry.chunks) w.write(chunk + "\n");
+        } finally {
+            w.close();
+        }
+    }
+
+    @Nullable
+    private static Entry readManifest(File manifest) {
+        try {
+            BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), StandardCharsets.UTF_8));
+            try {
+                String line = r.readLine();
+                // manifests written before snapshots were kept per session have neither project nor session
+                String project = "";
+                String session = "";
+                if(line!=null && line.startsWith("project=")) {
+                    project = value(line, "project=");
+                    session = value(r.readLine(), "session=");
+                    line = r.readLine();
+                }
+                String document = value(line, "document=");
+                long time = Long.parseLong(value(r.readLine(), "time="));
+                int length = Integer.parseInt(value(r.readLine(), "length="));
+                String digest = value(r.readLine(), "digest=");
+                List<String> chunks = new ArrayList<String>();
+                while((line = r.readLine())!=null) {
+                    if(!line.isEmpty()) chunks.add(line);
+                }
+                return new Entry(manifest, project, session, document, time, length, digest, chunks);
+            } finally {
+                r.close();
+            }
+        } catch (Exception ex) {
+            LoggerHelper.warn("Skipping unreadable snapshot manifest " + manifest.getName(), ex, SnapshotStore.class);
+            return null;
+        }
+    }
+
+    private static String value(String line, String key) throws IOException {
+        if(line==null || !line.startsWith(key)) throw new IOException("Missing " + key);
+        return line.substring(key.length());
+    }
+
+    private void load() {
+        if(entries!=null) return;
+        entries = new ArrayList<Entry>();
+        File[] manifests = manifestDir.listFiles();
+        if(manifests!=null) {
+            for(File f : manifests) {
+                if(!f.getName().endsWith(MANIFEST_SUFFIX)) continue;
+                Entry e = readManifest(f);
+                if(e!=null) entries.add(e);
+            }
+        }
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return Long.compare(a.time, b.time);
+            }
+        });
+        for(Entry e : entries) addRefs(e);
+        // also drops chunks left behind by an interrupted eviction
+        File[] dirs = chunkDir.listFiles();
+        if(dirs!=null) {
+            for(File dir : dirs) {
+                File[] chunks = dir.listFiles();
+                if(chunks==null) continue;
+                for(File chunk : chunks) {
+                    if(chunkRefs.containsKey(chunk.getName())) {
+                        chunkSizes.put(chunk.getName(), chunk.length());
+                        storedBytes += chunk.length();
+                    } else {
+                        chunk.delete();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * drop the oldest snapshots until the chunks fit into <code>budget</code>, always keeping the newest.
+     */
+    private void evict(long budget) {
+        while(storedBytes>budget && entries.size()>1) {
+            remove(entries.get(0));
+        }
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry);
+        entry.manifest.delete();
+        releaseRefs(entry);
+    }
+
+    /**
+     * drop a reference to each chunk of <code>entry</code>, deleting chunks nothing refers to anymore.
+     */
+    private void releaseRefs(Entry entry) {
+        for(String chunk : entry.chunks) {
+            Integer refs = chunkRefs.get(chunk);
+            if(refs==null) continue;
+            if(refs>1) {
+                chunkRefs.put(chunk, refs - 1);
+                continue;
+            }
+            chunkRefs.remove(chunk);
+            Long size = chunkSizes.remove(chunk);
+            if(size!=null) storedBytes -= size;
+            chunkFile(chunk).delete();
+        }
+    }
+
+    private void addRefs(Entry entry) {
+        for(String chunk : entry.chunks) {
+            Integer refs = chunkRefs.get(chunk);
+            chunkRefs.put(chunk, refs==null ? 1 : refs + 1);
+        }
+    }
+
+    private static byte[] sha1(byte[] bytes, int offset, int length) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(bytes, offset, length);
+            return md.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] digest) {
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for(byte b : digest) {
+            sb.append(HEX_DIGITS[(b >> 4) & 0xf]).append(HEX_DIGITS[b & 0xf]);
+        }
+        return sb.toString();
+    }
+}